@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONArray;
+
+/**
+ * Bounded record of the inserts acknowledged by the API, used to skip an insert sent again
+ * after its first request already succeeded, for example when a spool is replayed or a file
+ * imported again after a crash. Inserts are identified by a key the sender derives from where
+ * the insert comes from, not from its content: {@link InsertSpool} keys a record by its
+ * position in the spool and {@link FileImporter} a row by its file and offset. The ledger is
+ * only checked for inserts sent again, a new insert identical to an acknowledged one is always
+ * sent.
+ *
+ * The ledger keeps the maxEntries most recently acknowledged keys for at most ttlMs
+ * milliseconds. Its state can be exported and imported to survive restarts.
+ *
+ * An insert whose response was lost, such as one that timed out, is not acknowledged and
+ * can't be detected, the ledger only prevents resending inserts known to be applied.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class BatchLedger {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int maxEntries;
+
+    private final long ttlMs;
+
+    /**
+     * Acknowledgement time by insert key, in acknowledgement order
+     */
+    private final LinkedHashMap<String, Long> acknowledged;
+
+    private long hits;
+
+    private BatchLedger(final Builder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.ttlMs = builder.ttlMs;
+        this.acknowledged = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                return this.size() > BatchLedger.this.maxEntries;
+            }
+        };
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param key Identifies an insert, such as the position it was read from
+     * @return true if the insert was acknowledged and should not be sent again
+     */
+    public boolean isAcknowledged(final String key) {
+        this.lock.lock();
+        try {
+            final Long acknowledgedAt = this.acknowledged.get(key);
+            if (acknowledgedAt == null) {
+                return false;
+            }
+            if (this.isExpired(acknowledgedAt, System.currentTimeMillis())) {
+                this.acknowledged.remove(key);
+                return false;
+            }
+            this.hits++;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Record an insert the API acknowledged
+     *
+     * @param key Identifies the insert, such as the position it was read from
+     */
+    public void acknowledge(final String key) {
+        this.lock.lock();
+        try {
+            // re-insert so the key moves to the end of the eviction order
+            this.acknowledged.remove(key);
+            this.acknowledged.put(key, System.currentTimeMillis());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of inserts in the ledger
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.acknowledged.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of inserts skipped because they were already acknowledged
+     */
+    public long getHits() {
+        this.lock.lock();
+        try {
+            return this.hits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the state of the ledger, an array of [key, acknowledgement time in epoch
+     * milliseconds] from the oldest to the newest acknowledgement
+     */
+    public JSONArray exportState() {
+        this.lock.lock();
+        try {
+            this.evictExpired(System.currentTimeMillis());
+            final JSONArray state = new JSONArray();
+            for (final Map.Entry<String, Long> entry : this.acknowledged.entrySet()) {
+                state.put(new JSONArray().put(entry.getKey()).put(entry.getValue().longValue()));
+            }
+            return state;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Add the inserts of an exported state, expired inserts are ignored
+     *
+     * @param state A state returned by {@link #exportState()}
+     */
+    public void importState(final JSONArray state) {
+        final long now = System.currentTimeMillis();
+        this.lock.lock();
+        try {
+            for (int i = 0; i < state.length(); i++) {
+                final JSONArray entry = state.getJSONArray(i);
+                final long acknowledgedAt = entry.getLong(1);
+                if (!this.isExpired(acknowledgedAt, now)) {
+                    this.acknowledged.remove(entry.getString(0));
+                    this.acknowledged.put(entry.getString(0), acknowledgedAt);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean isExpired(final long acknowledgedAt, final long now) {
+        return this.ttlMs > 0 && now - acknowledgedAt > this.ttlMs;
+    }
+
+    /**
+     * Remove the expired inserts, must be called holding the lock
+     */
+    private void evictExpired(final long now) {
+        final Iterator<Long> times = this.acknowledged.values().iterator();
+        while (times.hasNext() && this.isExpired(times.next(), now)) {
+            times.remove();
+        }
+    }
+
+    public static class Builder {
+
+        private int maxEntries = 100000;
+
+        private long ttlMs = 24 * 60 * 60 * 1000L;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxEntries Max number of inserts kept, the oldest acknowledgements are
+         *                   evicted first
+         */
+        public Builder maxEntries(final int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("maxEntries must be at least 1");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * @param ttlMs Time in milliseconds an insert is kept after its acknowledgement, 0 to keep
+         *              it until evicted
+         */
+        public Builder ttlMs(final long ttlMs) {
+            if (ttlMs < 0) {
+                throw new IllegalArgumentException("ttlMs must not be negative");
+            }
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        public BatchLedger build() {
+            return new BatchLedger(this);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+/**
+ * Receives the outcome of each insert request sent by a {@link BulkInserter}
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+@FunctionalInterface
+public interface BatchListener {
+
+    /**
+     * Called once per batch when its insert request finishes, must not block
+     *
+     * @param outcome The batch and its result
+     */
+    void onBatch(final BatchOutcome outcome);
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * Result of an insert request sent by a {@link BulkInserter}
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class BatchOutcome {
+
+    private final List<String> entityIds;
+
+    private final long bytes;
+
+    private final long latency;
+
+    private final JSONObject response;
+
+    private final Throwable error;
+
+    private final boolean skipped;
+
+    BatchOutcome(final List<String> entityIds, final long bytes, final long latency,
+                 final JSONObject response, final Throwable error) {
+        this(entityIds, bytes, latency, response, error, false);
+    }
+
+    BatchOutcome(final List<String> entityIds, final long bytes, final long latency,
+                 final JSONObject response, final Throwable error, final boolean skipped) {
+        this.entityIds = Collections.unmodifiableList(entityIds);
+        this.bytes = bytes;
+        this.latency = latency;
+        this.response = response;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    /**
+     * @return true if the batch was not sent because its {@link BatchLedger} already
+     * acknowledged it, the batch is successful
+     */
+    public boolean isSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * @return the ids of the entities inserted by the batch
+     */
+    public List<String> getEntityIds() {
+        return this.entityIds;
+    }
+
+    public int getEntities() {
+        return this.entityIds.size();
+    }
+
+    /**
+     * @return the size in bytes of the request body
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the time in milliseconds the insert request took
+     */
+    public long getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return the API response, null if the batch failed
+     */
+    public JSONObject getResponse() {
+        return this.response;
+    }
+
+    /**
+     * @return the SlicingDiceException or transport error of a failed batch, null if it
+     * succeeded
+     */
+    public Throwable getError() {
+        return this.error;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
+import com.slicingdice.jslicer.utils.URLResources;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Synchronous facade of {@link SlicingDice} for thread-per-request code, each method waits for
+ * the parsed response and throws the SlicingDiceException raised by the request. Waiting parks
+ * the calling thread without holding a monitor, so virtual threads unmount from their carrier
+ * while the request is in flight, and no callback blocks a Netty IO thread.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class BlockingSlicingDice implements Closeable {
+
+    private final SlicingDice client;
+
+    public BlockingSlicingDice(final String masterKey) {
+        this(new SlicingDice(masterKey));
+    }
+
+    /**
+     * @param client The client making the requests, closed with this facade
+     */
+    public BlockingSlicingDice(final SlicingDice client) {
+        this.client = client;
+    }
+
+    /**
+     * @return the async client used by this facade
+     */
+    public SlicingDice getAsync() {
+        return this.client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.client.close();
+    }
+
+    /**
+     * Wait for a request, cancelling it if the waiting thread is interrupted
+     */
+    private static JSONObject await(final CompletableFuture<JSONObject> result) {
+        try {
+            return result.get();
+        } catch (final ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SlicingDiceException("SlicingDice: Error while requesting SlicingDice.",
+                    cause);
+        } catch (final InterruptedException exception) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SlicingDiceException("SlicingDice: Interrupted while waiting for the " +
+                    "response.", exception);
+        }
+    }
+
+    /**
+     * Create column in Slicing Dice, will return the SlicingDice response
+     *
+     * @param data A JSONObject in the Slicing Dice column format
+     * @return the SlicingDice response
+     */
+    public JSONObject createColumn(final JSONObject data) {
+        return await(this.client.createColumnAsync(data));
+    }
+
+    /**
+     * Create column in Slicing Dice, will return the SlicingDice response
+     *
+     * @param dataArray A JSONArray with many JSONObjects in the Slicing Dice column format
+     * @return the SlicingDice response
+     */
+    public JSONObject createColumn(final JSONArray dataArray) {
+        return await(this.client.createColumnAsync(dataArray));
+    }
+
+    /**
+     * Get all columns, will return all columns(active and inactive).
+     *
+     * @return the SlicingDice response
+     */
+    public JSONObject getColumns() {
+        return await(this.client.getColumnsAsync());
+    }
+
+    /**
+     * Insert data to existing entities or create new entities, if necessary. This method corresponds
+     * to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data A JSON object in the SlicingDice insert format
+     * @return the SlicingDice response
+     */
+    public JSONObject insert(final JSONObject data) {
+        return await(this.client.insertAsync(data));
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data A buffer with the UTF-8 JSON in the SlicingDice insert format, it must not
+     *             be modified until the request finishes
+     * @return the SlicingDice response
+     */
+    public JSONObject insertRaw(final ByteBuffer data) {
+        return await(this.client.insertRawAsync(data));
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data The UTF-8 JSON in the SlicingDice insert format
+     * @return the SlicingDice response
+     */
+    public JSONObject insertRaw(final byte[] data) {
+        return await(this.client.insertRawAsync(data));
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     A buffer with the UTF-8 encoded query, it must not be modified until the
+     *                 request finishes
+     * @return the SlicingDice response
+     */
+    public JSONObject queryRaw(final URLResources endpoint, final ByteBuffer data) {
+        return await(this.client.queryRawAsync(endpoint, data));
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     The UTF-8 encoded query
+     * @return the SlicingDice response
+     */
+    public JSONObject queryRaw(final URLResources endpoint, final byte[] data) {
+        return await(this.client.queryRawAsync(endpoint, data));
+    }
+
+    /**
+     * Get information about current database, will return A JSONObject containing properties
+     * of the current database.
+     *
+     * @return the SlicingDice response
+     */
+    public JSONObject getDatabase() {
+        return await(this.client.getDatabaseAsync());
+    }
+
+    /**
+     * Make a count entity query in Slicing Dice API, will return a JSONObject with count entity query result
+     *
+     * @param query A JSONObject count entity query
+     * @return the SlicingDice response
+     */
+    public JSONObject countEntity(final JSONObject query) {
+        return await(this.client.countEntityAsync(query));
+    }
+
+    /**
+     * Make a count entity query in Slicing Dice API, will return a JSONObject with count entity query result
+     *
+     * @param query A JSONArray count entity query
+     * @return the SlicingDice response
+     */
+    public JSONObject countEntity(final JSONArray query) {
+        return await(this.client.countEntityAsync(query));
+    }
+
+    /**
+     * Make a total query in Slicing Dice API, will return a JSONObject with total query result
+     *
+     * @return the SlicingDice response
+     */
+    public JSONObject countEntityTotal() {
+        return await(this.client.countEntityTotalAsync());
+    }
+
+    /**
+     * Make a total query in Slicing Dice API, will return a JSONObject with total query result
+     *
+     * @param dimensions A Collection containing the dimensions in which the total query will be performed
+     * @return the SlicingDice response
+     */
+    public JSONObject countEntityTotal(final Collection<String> dimensions) {
+        return await(this.client.countEntityTotalAsync(dimensions));
+    }
+
+    /**
+     * Make a count event query in Slicing Dice API, will return a JSONObject with count event query result
+     *
+     * @param query A JSONObject count event query
+     * @return the SlicingDice response
+     */
+    public JSONObject countEvent(final JSONObject query) {
+        return await(this.client.countEventAsync(query));
+    }
+
+    /**
+     * Make a count event query in Slicing Dice API, will return a JSONObject with count event query result
+     *
+     * @param query A JSONArray count event query
+     * @return the SlicingDice response
+     */
+    public JSONObject countEvent(final JSONArray query) {
+        return await(this.client.countEventAsync(query));
+    }
+
+    /**
+     * Make a aggregation query in Slicing Dice API, will return a JSONObject with aggregation query result
+     *
+     * @param query A JSONObject aggregation query
+     * @return the SlicingDice response
+     */
+    public JSONObject aggregation(final JSONObject query) {
+        return await(this.client.aggregationAsync(query));
+    }
+
+    /**
+     * Make a top values query in Slicing Dice API, will return a JSONObject with top values query result
+     *
+     * @param query A JSONObject top values query
+     * @return the SlicingDice response
+     */
+    public JSONObject topValues(final JSONObject query) {
+        return await(this.client.topValuesAsync(query));
+    }
+
+    /**
+     * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
+     *
+     * @param ids   A JSONArray exists entity query
+     * @param dimension In which dimension entities check be checked
+     * @return the SlicingDice response
+     */
+    public JSONObject existsEntity(final JSONArray ids, final String dimension) {
+        return await(this.client.existsEntityAsync(ids, dimension));
+    }
+
+    /**
+     * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
+     *
+     * @param ids A JSONArray exists entity query
+     * @return the SlicingDice response
+     */
+    public JSONObject existsEntityWithoutDimension(final JSONArray ids) {
+        return await(this.client.existsEntityWithoutDimensionAsync(ids));
+    }
+
+    /**
+     * Query SlicingDice API for saved queries, will return JSONObject with get saved query result
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @return the SlicingDice response
+     */
+    public JSONObject getSavedQuery(final String queryName) {
+        return await(this.client.getSavedQueryAsync(queryName));
+    }
+
+    /**
+     * Query SlicingDice API for all saved queries, will return a JSONObject with get saved query result
+     *
+     * @return the SlicingDice response
+     */
+    public JSONObject getSavedQueries() {
+        return await(this.client.getSavedQueriesAsync());
+    }
+
+    /**
+     * Delete a previous saved query on SlicingDice API, will return a JSONObject with get saved query result
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @return the SlicingDice response
+     */
+    public JSONObject deleteSavedQuery(final String queryName) {
+        return await(this.client.deleteSavedQueryAsync(queryName));
+    }
+
+    /**
+     * Create a saved query in Slicing Dice API, will return a JSONObject with saved query if request was successful
+     *
+     * @param query A JSONObject saved query
+     * @return the SlicingDice response
+     */
+    public JSONObject createSavedQuery(final JSONObject query) {
+        return await(this.client.createSavedQueryAsync(query));
+    }
+
+    /**
+     * Update a saved query in Slicing Dice API, will return a JSONObject with new saved query if request was successful
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @param query     A JSONObject saved query
+     * @return the SlicingDice response
+     */
+    public JSONObject updateSavedQuery(final String queryName, final JSONObject query) {
+        return await(this.client.updateSavedQueryAsync(queryName, query));
+    }
+
+    /**
+     * Make a data extraction score query in Slicing Dice API, will return a JSONObject with data extraction score query result
+     *
+     * @param query A JSONObject data extraction score query
+     * @return the SlicingDice response
+     */
+    public JSONObject score(final JSONObject query) {
+        return await(this.client.scoreAsync(query));
+    }
+
+    /**
+     * Make a data extraction result query in Slicing Dice API, will return a JSONObject with result of data extraction result query
+     *
+     * @param query A JSONObject data extraction result query
+     * @return the SlicingDice response
+     */
+    public JSONObject result(final JSONObject query) {
+        return await(this.client.resultAsync(query));
+    }
+
+    /**
+     * Make a sql query query in Slicing Dice API, will return a JSONObject with result of sql query
+     *
+     * @param query A JSONObject data extraction result query
+     * @return the SlicingDice response
+     */
+    public JSONObject sql(final String query) {
+        return await(this.client.sqlAsync(query));
+    }
+
+    /**
+     * Make a delete request
+     *
+     * @param query A JSONObject that represents the query to delete
+     * @return the SlicingDice response
+     */
+    public JSONObject delete(final JSONObject query) {
+        return await(this.client.deleteAsync(query));
+    }
+
+    /**
+     * Make a update request
+     *
+     * @param query A JSONObject that represents the query to update
+     * @return the SlicingDice response
+     */
+    public JSONObject update(final JSONObject query) {
+        return await(this.client.updateAsync(query));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Insert body size the API accepts, learned from the batches it rejected with a
+ * RequestBodySizeExceededException. After a rejection the ceiling is the largest accepted size
+ * below the rejected one, or half the rejected size if no such size is known yet, which is the
+ * size of the halves resent after splitting the batch.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+final class BodySizeCeiling {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile long ceiling = Long.MAX_VALUE;
+
+    private long largestAccepted;
+
+    /**
+     * @return the max size in bytes of an insert body, Long.MAX_VALUE until a body is rejected
+     */
+    long get() {
+        return this.ceiling;
+    }
+
+    void onAccepted(final long size) {
+        this.lock.lock();
+        try {
+            if (size < this.ceiling) {
+                this.largestAccepted = Math.max(this.largestAccepted, size);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void onRejected(final long size) {
+        this.lock.lock();
+        try {
+            if (this.largestAccepted >= size) {
+                // the limit went down since, forget what was accepted before
+                this.largestAccepted = 0;
+            }
+            this.ceiling = Math.min(this.ceiling,
+                    Math.max(this.largestAccepted, Math.max(size / 2, 1)));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,733 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
+import com.slicingdice.jslicer.exceptions.client.InvalidColumnException;
+import com.slicingdice.jslicer.exceptions.client.WrongTypeException;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Thread-safe batching of inserts. Entities added from any number of threads are accumulated
+ * in a batch which is sent as a single insert request once it holds maxEntities entities,
+ * once its body reaches maxBytes or lingerMs milliseconds after its first entity was added,
+ * whichever comes first. Up to maxParallelFlushes batches are inserted at the same time, the
+ * others wait in a queue of maxQueuedBatches batches and {@link #add(String, JSONObject)}
+ * blocks while that queue is full.
+ *
+ * Entities are serialized when added, so they can be modified afterwards, and the outcome of
+ * every batch is reported to the {@link BatchListener}. A batch rejected by the API for its
+ * size is split in halves on entity boundaries, recursively if needed, the halves are resent
+ * in parallel and each reports its own outcome. The size the API accepts is learned by the
+ * client, later batches are sent below it.
+ *
+ * With coalescing enabled, an entity added again while it is in the current batch is merged
+ * into it instead of starting a new batch: event column values are appended into an array and
+ * other columns keep the latest value.
+ *
+ * With a {@link BatchLedger}, the entities added with a key, such as the position of the
+ * entity in its source, are acknowledged by that key once inserted. An entity sent again after
+ * a crash is added with {@link #resend(String, JSONObject, String)} and its key: it is reported
+ * as skipped if the ledger acknowledged it. Entities added with add are always inserted, even
+ * if identical to an acknowledged one.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class BulkInserter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BulkInserter.class.getCanonicalName());
+
+    private static final String AUTO_CREATE = "auto-create";
+
+    private final SlicingDice client;
+
+    private final int maxEntities;
+
+    private final long maxBytes;
+
+    private final long lingerMs;
+
+    private final int maxParallelFlushes;
+
+    private final int maxQueuedBatches;
+
+    private final boolean coalesce;
+
+    private final String autoCreate;
+
+    private final SchemaCache schema;
+
+    private final boolean autoCreatesColumns;
+
+    private final BatchListener listener;
+
+    private final BatchLedger ledger;
+
+    private final BodySizeCeiling ceiling;
+
+    private final ScheduledExecutorService timer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+
+    /**
+     * Batches queued or in flight, flush and close wait for them
+     */
+    private final Set<Batch> outstanding = new LinkedHashSet<>();
+
+    private Batch batch;
+
+    private int inFlight;
+
+    private long coalesced;
+
+    private boolean closed;
+
+    private BulkInserter(final Builder builder) {
+        this.client = builder.client;
+        this.maxEntities = builder.maxEntities;
+        this.maxBytes = builder.maxBytes;
+        this.lingerMs = builder.lingerMs;
+        this.maxParallelFlushes = builder.maxParallelFlushes;
+        this.maxQueuedBatches = builder.maxQueuedBatches;
+        this.coalesce = builder.coalesce;
+        this.autoCreate = builder.autoCreate == null ? null :
+                "," + JSONObject.quote(AUTO_CREATE) + ":" + builder.autoCreate.toString();
+        this.schema = builder.schema;
+        this.autoCreatesColumns = SchemaCache.autoCreatesColumns(builder.autoCreate);
+        this.listener = builder.listener;
+        this.ledger = builder.ledger;
+        this.ceiling = builder.client.insertSizeCeiling();
+        this.timer = this.lingerMs == 0 ? null :
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "slicingdice-bulk-linger");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * @param client The client making the insert requests
+     */
+    public static Builder builder(final SlicingDice client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Add every entity of a JSONObject in the Slicing Dice insert format, an auto-create key
+     * is ignored, use {@link Builder#autoCreate(JSONArray)} instead
+     *
+     * @param data The entities to insert
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public void add(final JSONObject data) throws InterruptedException {
+        for (final String entityId : data.keySet()) {
+            if (!AUTO_CREATE.equals(entityId)) {
+                this.add(entityId, data.getJSONObject(entityId));
+            }
+        }
+    }
+
+    /**
+     * Add an entity to the current batch. If the entity is already in the batch, it is merged
+     * when coalescing is enabled, otherwise the batch is sent first so no value is replaced.
+     *
+     * @param entityId   The entity id
+     * @param attributes The column values of the entity
+     * @throws InterruptedException   if interrupted while waiting for room in the queue
+     * @throws IllegalStateException  if the inserter is closed
+     * @throws InvalidColumnException if a schema is set and a column is unknown
+     * @throws WrongTypeException     if a schema is set and a value doesn't match its column
+     */
+    public void add(final String entityId, final JSONObject attributes)
+            throws InterruptedException {
+        this.add(entityId, attributes, null);
+    }
+
+    /**
+     * Add an entity identified by a key, acknowledged in the ledger once the entity is inserted
+     *
+     * @param entityId   The entity id
+     * @param attributes The column values of the entity
+     * @param key        Identifies this insert of the entity, such as its position in the
+     *                   source it is read from, null to not acknowledge it
+     * @throws InterruptedException   if interrupted while waiting for room in the queue
+     * @throws IllegalStateException  if the inserter is closed
+     * @throws InvalidColumnException if a schema is set and a column is unknown
+     * @throws WrongTypeException     if a schema is set and a value doesn't match its column
+     * @see #add(String, JSONObject)
+     */
+    public void add(final String entityId, final JSONObject attributes, final String key)
+            throws InterruptedException {
+        if (this.schema != null) {
+            this.schema.validate(entityId, attributes, this.autoCreatesColumns);
+        }
+        final Entry entry = new Entry(entityId, attributes.toString(),
+                this.coalesce ? EntityMerger.dimension(attributes) : null);
+        if (this.ledger != null && key != null) {
+            entry.keys = new ArrayList<>(1);
+            entry.keys.add(key);
+        }
+        final long maxBytes = Math.min(this.maxBytes, this.ceiling.get());
+        final List<Batch> ready;
+        this.lock.lock();
+        try {
+            while (!this.closed && this.queue.size() >= this.maxQueuedBatches) {
+                this.notFull.await();
+            }
+            if (this.closed) {
+                throw new IllegalStateException("SlicingDice: the BulkInserter is closed.");
+            }
+            final Entry current = this.batch == null ? null : this.batch.members.get(entityId);
+            if (this.batch != null && this.batch.bytes + entry.size > maxBytes) {
+                this.seal();
+            } else if (current != null && this.coalesce &&
+                    EntityMerger.canMerge(current.dimension, entry.dimension)) {
+                this.batch.merge(current, entry);
+                this.coalesced++;
+            } else if (current != null) {
+                this.seal();
+            }
+            if (this.batch == null) {
+                this.open();
+            }
+            if (this.batch.members.get(entityId) == null) {
+                this.batch.add(entry);
+            }
+            if (this.batch.entries.size() >= this.maxEntities ||
+                    this.batch.bytes >= maxBytes) {
+                this.seal();
+            }
+            ready = this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+        this.send(ready);
+    }
+
+    /**
+     * Add an entity that may have been inserted before, such as one read again from a source
+     * after a crash. The entity is reported as skipped if the ledger acknowledged its key,
+     * otherwise it is added like {@link #add(String, JSONObject, String)}.
+     *
+     * @param entityId   The entity id
+     * @param attributes The column values of the entity
+     * @param key        The key the entity was added with the first time
+     * @throws InterruptedException   if interrupted while waiting for room in the queue
+     * @throws IllegalStateException  if the inserter is closed
+     * @throws InvalidColumnException if a schema is set and a column is unknown
+     * @throws WrongTypeException     if a schema is set and a value doesn't match its column
+     */
+    public void resend(final String entityId, final JSONObject attributes, final String key)
+            throws InterruptedException {
+        if (this.ledger != null && this.ledger.isAcknowledged(key)) {
+            this.report(new BatchOutcome(Collections.singletonList(entityId), 0, 0, null, null,
+                    true));
+            return;
+        }
+        this.add(entityId, attributes, key);
+    }
+
+    /**
+     * @return the number of updates merged into an entity already in a batch
+     */
+    public long getCoalesced() {
+        this.lock.lock();
+        try {
+            return this.coalesced;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Send the current batch without waiting for it to fill up
+     *
+     * @return a future completed once every batch added so far was inserted or failed, the
+     * failures are reported to the listener
+     */
+    public CompletableFuture<Void> flush() {
+        final List<Batch> ready;
+        final CompletableFuture<?>[] pending;
+        this.lock.lock();
+        try {
+            if (this.batch != null) {
+                this.seal();
+            }
+            ready = this.dispatch();
+            pending = new CompletableFuture<?>[this.outstanding.size()];
+            int i = 0;
+            for (final Batch outstanding : this.outstanding) {
+                pending[i++] = outstanding.done;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.send(ready);
+        return CompletableFuture.allOf(pending);
+    }
+
+    /**
+     * @return the number of entities waiting in the current batch and in the queue
+     */
+    public int getPendingEntities() {
+        this.lock.lock();
+        try {
+            int pending = this.batch == null ? 0 : this.batch.entries.size();
+            for (final Batch queued : this.queue) {
+                pending += queued.entries.size();
+            }
+            return pending;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting entities, send the current batch and wait for every batch to complete
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.flush().join();
+        } finally {
+            if (this.timer != null) {
+                this.timer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Start a new batch and schedule its linger timeout, must be called holding the lock
+     */
+    private void open() {
+        final Batch opened = new Batch();
+        this.batch = opened;
+        if (this.lingerMs > 0) {
+            opened.linger = this.timer.schedule(() -> this.onLinger(opened), this.lingerMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Move the current batch to the queue, must be called holding the lock
+     */
+    private void seal() {
+        if (this.batch.linger != null) {
+            this.batch.linger.cancel(false);
+        }
+        this.queue.addLast(this.batch);
+        this.outstanding.add(this.batch);
+        this.batch = null;
+    }
+
+    /**
+     * Take the queued batches that can be sent now, must be called holding the lock
+     */
+    private List<Batch> dispatch() {
+        final List<Batch> ready = new ArrayList<>();
+        while (this.inFlight < this.maxParallelFlushes && !this.queue.isEmpty()) {
+            this.inFlight++;
+            ready.add(this.queue.pollFirst());
+        }
+        if (!ready.isEmpty()) {
+            this.notFull.signalAll();
+        }
+        return ready;
+    }
+
+    private void onLinger(final Batch lingering) {
+        final List<Batch> ready;
+        this.lock.lock();
+        try {
+            if (this.batch != lingering) {
+                return;
+            }
+            this.seal();
+            ready = this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+        this.send(ready);
+    }
+
+    private void send(final List<Batch> ready) {
+        for (final Batch sending : ready) {
+            this.insert(sending).whenComplete((ignored, error) -> this.onBatchDone(sending));
+        }
+    }
+
+    /**
+     * Insert a batch and report its outcome, splitting it while the API rejects its size
+     *
+     * @return a future completed once every part of the batch reported its outcome
+     */
+    private CompletableFuture<Void> insert(final Batch batch) {
+        final byte[] body = batch.body(this.autoCreate);
+        final long start = System.nanoTime();
+        return this.client.insertRawAsync(ByteBuffer.wrap(body)).handle((result, error) -> {
+            final Throwable cause = unwrap(error);
+            if (cause instanceof RequestBodySizeExceededException && batch.ids.size() > 1) {
+                this.ceiling.onRejected(body.length);
+                final int half = batch.ids.size() / 2;
+                return CompletableFuture.allOf(this.insert(batch.slice(0, half)),
+                        this.insert(batch.slice(half, batch.ids.size())));
+            }
+            if (cause == null) {
+                this.ceiling.onAccepted(body.length);
+                for (final Entry entry : batch.entries) {
+                    if (entry.keys != null) {
+                        for (final String key : entry.keys) {
+                            this.ledger.acknowledge(key);
+                        }
+                    }
+                }
+            }
+            this.report(new BatchOutcome(batch.ids, body.length,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), result, cause));
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(parts -> parts);
+    }
+
+    private void report(final BatchOutcome outcome) {
+        try {
+            this.listener.onBatch(outcome);
+        } catch (final RuntimeException e) {
+            logger.log(Level.WARNING, "SlicingDice: batch listener failed.", e);
+        }
+    }
+
+    private void onBatchDone(final Batch done) {
+        final List<Batch> ready;
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.outstanding.remove(done);
+            ready = this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+        done.done.complete(null);
+        this.send(ready);
+    }
+
+    private static Throwable unwrap(final Throwable error) {
+        if (error instanceof CompletionException &&
+                error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Number of bytes of the UTF-8 encoding of a string, without encoding it
+     */
+    static long utf8Length(final CharSequence value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * An entity of a batch, kept serialized until it is merged with an update
+     */
+    private static final class Entry {
+        private final String id;
+
+        private final String attributes;
+
+        private final String dimension;
+
+        /**
+         * Size of the entry in the body, an upper bound once merged
+         */
+        private long size;
+
+        private JSONObject merged;
+
+        /**
+         * Ledger keys of the inserts merged into the entry, null without a ledger or a key
+         */
+        private List<String> keys;
+
+        private Entry(final String id, final String attributes, final String dimension) {
+            this.id = id;
+            this.attributes = attributes;
+            this.dimension = dimension;
+            this.size = utf8Length(JSONObject.quote(id)) + utf8Length(attributes) + 2;
+        }
+
+        private void appendTo(final StringBuilder body) {
+            body.append(JSONObject.quote(this.id)).append(':')
+                    .append(this.merged == null ? this.attributes : this.merged.toString());
+        }
+    }
+
+    /**
+     * Entities of an insert request
+     */
+    private static final class Batch {
+        private final List<Entry> entries = new ArrayList<>();
+
+        private final List<String> ids = new ArrayList<>();
+
+        private final Map<String, Entry> members = new HashMap<>();
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private long bytes = 1;
+
+        private ScheduledFuture<?> linger;
+
+        /**
+         * @return a batch with the entities from index from, inclusive, to index to, exclusive
+         */
+        private Batch slice(final int from, final int to) {
+            final Batch slice = new Batch();
+            for (int i = from; i < to; i++) {
+                slice.add(this.entries.get(i));
+            }
+            return slice;
+        }
+
+        private void add(final Entry entry) {
+            this.entries.add(entry);
+            this.ids.add(entry.id);
+            this.members.put(entry.id, entry);
+            this.bytes += entry.size;
+        }
+
+        /**
+         * Merge an update into an entity of the batch, the update is parsed again so the
+         * merged entity doesn't share values with the caller's objects
+         */
+        private void merge(final Entry entry, final Entry update) {
+            if (entry.merged == null) {
+                entry.merged = new JSONObject(entry.attributes);
+            }
+            EntityMerger.merge(entry.merged, new JSONObject(update.attributes));
+            if (update.keys != null) {
+                if (entry.keys == null) {
+                    entry.keys = new ArrayList<>(update.keys.size());
+                }
+                entry.keys.addAll(update.keys);
+            }
+            entry.size += update.size;
+            this.bytes += update.size;
+        }
+
+        private byte[] body(final String autoCreate) {
+            final StringBuilder body = new StringBuilder((int) Math.min(this.bytes + 64,
+                    Integer.MAX_VALUE - 8));
+            body.append('{');
+            for (int i = 0; i < this.entries.size(); i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                this.entries.get(i).appendTo(body);
+            }
+            if (autoCreate != null) {
+                body.append(autoCreate);
+            }
+            body.append('}');
+            return body.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class Builder {
+
+        private final SlicingDice client;
+
+        private int maxEntities = 1000;
+
+        private long maxBytes = 1024 * 1024;
+
+        private long lingerMs = 100;
+
+        private int maxParallelFlushes = 4;
+
+        private int maxQueuedBatches = 16;
+
+        private boolean coalesce;
+
+        private JSONArray autoCreate;
+
+        private SchemaCache schema;
+
+        private BatchLedger ledger;
+
+        private BatchListener listener = outcome -> { };
+
+        private Builder(final SlicingDice client) {
+            this.client = client;
+        }
+
+        /**
+         * @param maxEntities Max number of entities in an insert request
+         */
+        public Builder maxEntities(final int maxEntities) {
+            if (maxEntities < 1) {
+                throw new IllegalArgumentException("maxEntities must be at least 1");
+            }
+            this.maxEntities = maxEntities;
+            return this;
+        }
+
+        /**
+         * @param maxBytes Max size in bytes of an insert request body, a single entity larger
+         *                 than this is sent alone
+         */
+        public Builder maxBytes(final long maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException("maxBytes must be at least 1");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param lingerMs Max time in milliseconds an entity waits for its batch to fill up, 0
+         *                 to only send full batches and on flush
+         */
+        public Builder lingerMs(final long lingerMs) {
+            if (lingerMs < 0) {
+                throw new IllegalArgumentException("lingerMs must not be negative");
+            }
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        /**
+         * @param maxParallelFlushes Max number of insert requests in flight
+         */
+        public Builder maxParallelFlushes(final int maxParallelFlushes) {
+            if (maxParallelFlushes < 1) {
+                throw new IllegalArgumentException("maxParallelFlushes must be at least 1");
+            }
+            this.maxParallelFlushes = maxParallelFlushes;
+            return this;
+        }
+
+        /**
+         * @param maxQueuedBatches Max number of full batches waiting to be sent before add
+         *                         blocks
+         */
+        public Builder maxQueuedBatches(final int maxQueuedBatches) {
+            if (maxQueuedBatches < 1) {
+                throw new IllegalArgumentException("maxQueuedBatches must be at least 1");
+            }
+            this.maxQueuedBatches = maxQueuedBatches;
+            return this;
+        }
+
+        /**
+         * @param coalesce Merge the updates of an entity already in the current batch instead
+         *                 of sending the batch, appending event column values into arrays
+         */
+        public Builder coalesce(final boolean coalesce) {
+            this.coalesce = coalesce;
+            return this;
+        }
+
+        /**
+         * @param autoCreate The auto-create setting sent with every batch, for example
+         *                   ["dimension", "column"]
+         */
+        public Builder autoCreate(final JSONArray autoCreate) {
+            this.autoCreate = autoCreate;
+            return this;
+        }
+
+        /**
+         * @param schema Validates the entities when added, coercing their values in place to
+         *               the column types
+         */
+        public Builder schema(final SchemaCache schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        /**
+         * @param ledger Records the keys of the inserted entities, an entity resent with an
+         *               acknowledged key is reported as skipped instead of being sent
+         */
+        public Builder ledger(final BatchLedger ledger) {
+            this.ledger = ledger;
+            return this;
+        }
+
+        /**
+         * @param listener Receives the outcome of every batch
+         */
+        public Builder listener(final BatchListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener must not be null");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        public BulkInserter build() {
+            return new BulkInserter(this);
+        }
+    }
+}
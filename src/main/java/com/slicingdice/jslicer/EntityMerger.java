@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Merges updates of the same entity into a single insert entry. Event column values, objects
+ * with a date or arrays of them, are appended into an array, the values of other columns are
+ * replaced by the latest update.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+final class EntityMerger {
+
+    private static final String DIMENSION = "dimension";
+
+    private static final String DATE = "date";
+
+    private EntityMerger() {
+    }
+
+    /**
+     * @return true if updates with these dimensions, null for the default one, can be merged
+     */
+    static boolean canMerge(final String dimension, final String otherDimension) {
+        return dimension == null ? otherDimension == null : dimension.equals(otherDimension);
+    }
+
+    /**
+     * @return the dimension of an entity's attributes, null for the default one
+     */
+    static String dimension(final JSONObject attributes) {
+        final Object dimension = attributes.opt(DIMENSION);
+        return dimension == null ? null : dimension.toString();
+    }
+
+    /**
+     * Merge an update into an entity, both must be owned by the caller since the event arrays
+     * of the entity are appended in place
+     *
+     * @param entity The merged entity, modified
+     * @param update The newer values of the entity
+     */
+    static void merge(final JSONObject entity, final JSONObject update) {
+        for (final String column : update.keySet()) {
+            final Object value = update.get(column);
+            final Object current = entity.opt(column);
+            if (current == null || !isEvent(current) || !isEvent(value)) {
+                entity.put(column, value);
+                continue;
+            }
+
+            final JSONArray events;
+            if (current instanceof JSONArray) {
+                events = (JSONArray) current;
+            } else {
+                events = new JSONArray().put(current);
+                entity.put(column, events);
+            }
+            if (value instanceof JSONArray) {
+                for (final Object event : (JSONArray) value) {
+                    events.put(event);
+                }
+            } else {
+                events.put(value);
+            }
+        }
+    }
+
+    private static boolean isEvent(final Object value) {
+        if (value instanceof JSONObject) {
+            return ((JSONObject) value).has(DATE);
+        }
+        if (value instanceof JSONArray) {
+            final Object first = ((JSONArray) value).opt(0);
+            return first instanceof JSONObject && ((JSONObject) first).has(DATE);
+        }
+        return false;
+    }
+}
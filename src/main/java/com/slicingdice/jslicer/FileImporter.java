@@ -0,0 +1,746 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Imports a NDJSON or CSV file. The file is split in chunks ending at line boundaries, the
+ * chunks are memory-mapped and parsed in parallel and each chunk is inserted through its own
+ * {@link BulkInserter}. Each line is a record: a JSON object for NDJSON, comma separated values
+ * named by the header line for CSV, where values can be quoted but can't contain line breaks.
+ *
+ * The fields of a record are mapped to columns by the schema given to the builder: a mapped
+ * field is renamed and its value converted, the other fields are kept as they are unless
+ * unmapped fields are ignored, and the entity id field is removed.
+ *
+ * With a checkpoint file, the import saves the offset before which every chunk was inserted
+ * and the chunks already inserted after it. Running the import again with the same file and
+ * chunk size resumes from the checkpoint, chunks with a failed insert are imported again.
+ * A {@link BatchLedger} acknowledges every inserted row by the file and the offset of its line,
+ * and when the import resumes from a checkpoint the rows it acknowledged are skipped, so the
+ * chunks interrupted by a crash don't insert their rows twice. Rows are never skipped for
+ * their content, identical rows are all inserted.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class FileImporter {
+
+    /**
+     * Format of the imported file
+     */
+    public enum Format {
+        /**
+         * A JSON object per line
+         */
+        NDJSON,
+        /**
+         * A header line naming the fields, then a line of separated values per record
+         */
+        CSV
+    }
+
+    /**
+     * Type a mapped field is converted to
+     */
+    public enum ValueType {
+        STRING,
+        INTEGER,
+        DECIMAL,
+        BOOLEAN
+    }
+
+    private static final Logger logger = Logger.getLogger(FileImporter.class.getCanonicalName());
+
+    private static final int SCAN_BLOCK_SIZE = 64 * 1024;
+
+    private final SlicingDice client;
+
+    private final Path path;
+
+    private final Format format;
+
+    private final String entityIdField;
+
+    private final char delimiter;
+
+    private final Map<String, Mapping> mappings;
+
+    private final boolean ignoreUnmapped;
+
+    private final int chunkSize;
+
+    private final int parallelism;
+
+    private final int maxEntities;
+
+    private final long maxBytes;
+
+    private final int maxParallelFlushes;
+
+    private final JSONArray autoCreate;
+
+    private final BatchLedger ledger;
+
+    private final Path checkpoint;
+
+    private final AtomicLong records = new AtomicLong();
+
+    private final AtomicLong skippedRecords = new AtomicLong();
+
+    private final AtomicLong insertedEntities = new AtomicLong();
+
+    private final AtomicLong failedEntities = new AtomicLong();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Start and end offsets of the chunks inserted after the committed offset
+     */
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+
+    private long committedOffset;
+
+    private long startedAt;
+
+    private String[] header;
+
+    /**
+     * Whether the import resumes from a checkpoint, its rows may have been inserted already
+     */
+    private boolean resumed;
+
+    private FileImporter(final Builder builder) {
+        this.client = builder.client;
+        this.path = builder.path;
+        this.format = builder.format != null ? builder.format :
+                builder.path.toString().toLowerCase().endsWith(".csv") ? Format.CSV :
+                        Format.NDJSON;
+        this.entityIdField = builder.entityIdField;
+        this.delimiter = builder.delimiter;
+        this.mappings = new HashMap<>(builder.mappings);
+        this.ignoreUnmapped = builder.ignoreUnmapped;
+        this.chunkSize = builder.chunkSize;
+        this.parallelism = builder.parallelism;
+        this.maxEntities = builder.maxEntities;
+        this.maxBytes = builder.maxBytes;
+        this.maxParallelFlushes = builder.maxParallelFlushes;
+        this.autoCreate = builder.autoCreate;
+        this.ledger = builder.ledger;
+        this.checkpoint = builder.checkpoint;
+    }
+
+    /**
+     * @param client The client making the insert requests
+     * @param path   The file to import
+     */
+    public static Builder builder(final SlicingDice client, final Path path) {
+        return new Builder(client, path);
+    }
+
+    /**
+     * Import the file, resuming from the checkpoint if there is one
+     *
+     * @return the final stats of the import
+     * @throws IOException          if the file can't be read or the checkpoint can't be saved
+     * @throws InterruptedException if interrupted, the chunks not inserted yet are left for
+     *                              the next run
+     */
+    public ImportStats run() throws IOException, InterruptedException {
+        this.startedAt = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long dataStart = 0;
+            if (this.format == Format.CSV) {
+                dataStart = nextLine(channel, 0, size);
+                final ByteBuffer line = ByteBuffer.allocate((int) dataStart);
+                channel.read(line, 0);
+                this.header = parseCsv(trimLine(new String(line.array(), 0, (int) dataStart,
+                        StandardCharsets.UTF_8)), this.delimiter).toArray(new String[0]);
+            }
+
+            final Set<Long> done = new HashSet<>();
+            this.lock.lock();
+            try {
+                this.committedOffset = Math.max(dataStart, this.loadCheckpoint(size, done));
+                // saved before inserting so a crash before the first chunk is done resumes
+                this.saveCheckpoint(size);
+            } finally {
+                this.lock.unlock();
+            }
+
+            final AtomicInteger threads = new AtomicInteger();
+            final ExecutorService workers = Executors.newFixedThreadPool(this.parallelism,
+                    runnable -> {
+                        final Thread thread = new Thread(runnable,
+                                "slicingdice-import-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            try {
+                final List<Future<?>> chunks = new ArrayList<>();
+                long start = this.committedOffset;
+                while (start < size) {
+                    final long chunkStart = start;
+                    final long chunkEnd = start + this.chunkSize >= size ? size :
+                            nextLine(channel, start + this.chunkSize, size);
+                    if (done.contains(chunkStart)) {
+                        this.onChunkDone(chunkStart, chunkEnd, size);
+                    } else {
+                        chunks.add(workers.submit(() -> {
+                            this.importChunk(channel, chunkStart, chunkEnd, size);
+                            return null;
+                        }));
+                    }
+                    start = chunkEnd;
+                }
+                for (final Future<?> chunk : chunks) {
+                    chunk.get();
+                }
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+        return this.getStats();
+    }
+
+    /**
+     * @return the progress of the import, can be called while it runs
+     */
+    public ImportStats getStats() {
+        final long committed;
+        this.lock.lock();
+        try {
+            committed = this.committedOffset;
+        } finally {
+            this.lock.unlock();
+        }
+        return new ImportStats(this.records.get(), this.skippedRecords.get(),
+                this.insertedEntities.get(), this.failedEntities.get(), this.bytesRead.get(),
+                committed, this.startedAt == 0 ? 0 :
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startedAt));
+    }
+
+    private void importChunk(final FileChannel channel, final long start, final long end,
+                             final long size) throws IOException, InterruptedException {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                end - start);
+        final String rows = this.ledger == null ? null :
+                this.path.toAbsolutePath() + ":" + size + ":";
+        final AtomicLong failed = new AtomicLong();
+        final BulkInserter.Builder inserter = BulkInserter.builder(this.client)
+                .maxEntities(this.maxEntities)
+                .maxBytes(this.maxBytes)
+                .maxParallelFlushes(this.maxParallelFlushes)
+                .lingerMs(0)
+                .ledger(this.ledger)
+                .listener(outcome -> {
+                    if (outcome.isSuccess()) {
+                        this.insertedEntities.addAndGet(outcome.getEntities());
+                    } else {
+                        this.failedEntities.addAndGet(outcome.getEntities());
+                        failed.addAndGet(outcome.getEntities());
+                        logger.log(Level.WARNING, "SlicingDice: import batch failed.",
+                                outcome.getError());
+                    }
+                });
+        if (this.autoCreate != null) {
+            inserter.autoCreate(this.autoCreate);
+        }
+
+        try (BulkInserter bulkInserter = inserter.build()) {
+            byte[] line = new byte[1024];
+            int position = 0;
+            final int limit = buffer.limit();
+            while (position < limit) {
+                int lineEnd = position;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int length = lineEnd - position;
+                if (length > 0 && buffer.get(lineEnd - 1) == '\r') {
+                    length--;
+                }
+                if (length > 0) {
+                    if (length > line.length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    buffer.position(position);
+                    buffer.get(line, 0, length);
+                    this.addRecord(bulkInserter, new String(line, 0, length,
+                            StandardCharsets.UTF_8), rows == null ? null :
+                            rows + (start + position));
+                }
+                this.bytesRead.addAndGet(Math.min(lineEnd + 1, limit) - position);
+                position = lineEnd + 1;
+            }
+        }
+
+        if (failed.get() == 0) {
+            this.onChunkDone(start, end, size);
+        }
+    }
+
+    /**
+     * @param key Ledger key of the row, null without ledger
+     */
+    private void addRecord(final BulkInserter inserter, final String line, final String key)
+            throws InterruptedException {
+        final JSONObject attributes = new JSONObject();
+        final Object entityId;
+        try {
+            if (this.format == Format.NDJSON) {
+                final JSONObject record = new JSONObject(line);
+                entityId = record.opt(this.entityIdField);
+                for (final String field : record.keySet()) {
+                    if (!field.equals(this.entityIdField)) {
+                        this.map(field, record.get(field), attributes);
+                    }
+                }
+            } else {
+                final List<String> values = parseCsv(line, this.delimiter);
+                String id = null;
+                for (int i = 0; i < Math.min(values.size(), this.header.length); i++) {
+                    if (this.header[i].equals(this.entityIdField)) {
+                        id = values.get(i);
+                    } else if (!values.get(i).isEmpty()) {
+                        this.map(this.header[i], values.get(i), attributes);
+                    }
+                }
+                entityId = id;
+            }
+        } catch (final JSONException | NumberFormatException e) {
+            this.skippedRecords.incrementAndGet();
+            logger.log(Level.FINE, "SlicingDice: skipping invalid import record.", e);
+            return;
+        }
+
+        if (entityId == null || entityId.toString().isEmpty()) {
+            this.skippedRecords.incrementAndGet();
+            return;
+        }
+        this.records.incrementAndGet();
+        if (attributes.length() == 0) {
+            return;
+        }
+        if (key != null && this.resumed) {
+            inserter.resend(entityId.toString(), attributes, key);
+        } else {
+            inserter.add(entityId.toString(), attributes, key);
+        }
+    }
+
+    private void map(final String field, final Object value, final JSONObject attributes) {
+        final Mapping mapping = this.mappings.get(field);
+        if (mapping == null) {
+            if (!this.ignoreUnmapped) {
+                attributes.put(field, value);
+            }
+            return;
+        }
+        attributes.put(mapping.column, mapping.convert(value));
+    }
+
+    /**
+     * Record an inserted chunk and move the committed offset over the contiguous inserted
+     * chunks
+     */
+    private void onChunkDone(final long start, final long end, final long size)
+            throws IOException {
+        this.lock.lock();
+        try {
+            this.completed.put(start, end);
+            Long next;
+            while ((next = this.completed.remove(this.committedOffset)) != null) {
+                this.committedOffset = next;
+            }
+            this.saveCheckpoint(size);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param done Filled with the start of the chunks inserted after the committed offset
+     * @return the saved committed offset, 0 if there is no checkpoint for this file
+     */
+    private long loadCheckpoint(final long size, final Set<Long> done) throws IOException {
+        if (this.checkpoint == null || !Files.exists(this.checkpoint)) {
+            return 0;
+        }
+        final Properties saved = new Properties();
+        try (InputStream input = Files.newInputStream(this.checkpoint)) {
+            saved.load(input);
+        }
+        if (!this.path.toAbsolutePath().toString().equals(saved.getProperty("file")) ||
+                !String.valueOf(size).equals(saved.getProperty("size"))) {
+            logger.warning("SlicingDice: ignoring the checkpoint of another file.");
+            return 0;
+        }
+        this.resumed = true;
+        if (String.valueOf(this.chunkSize).equals(saved.getProperty("chunkSize"))) {
+            for (final String chunk : saved.getProperty("completed", "").split(",")) {
+                if (!chunk.isEmpty()) {
+                    done.add(Long.parseLong(chunk));
+                }
+            }
+        }
+        return Long.parseLong(saved.getProperty("offset", "0"));
+    }
+
+    /**
+     * Replace the checkpoint file, must be called holding the lock
+     */
+    private void saveCheckpoint(final long size) throws IOException {
+        if (this.checkpoint == null) {
+            return;
+        }
+        final StringBuilder chunks = new StringBuilder();
+        for (final Long start : this.completed.keySet()) {
+            if (chunks.length() > 0) {
+                chunks.append(',');
+            }
+            chunks.append(start);
+        }
+        final Properties saved = new Properties();
+        saved.setProperty("file", this.path.toAbsolutePath().toString());
+        saved.setProperty("size", String.valueOf(size));
+        saved.setProperty("chunkSize", String.valueOf(this.chunkSize));
+        saved.setProperty("offset", String.valueOf(this.committedOffset));
+        saved.setProperty("completed", chunks.toString());
+
+        final Path temporary = this.checkpoint.resolveSibling(
+                this.checkpoint.getFileName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporary)) {
+            saved.store(output, "SlicingDice import checkpoint");
+        }
+        Files.move(temporary, this.checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the offset after the first line break at or after position, size if there is
+     * none
+     */
+    private static long nextLine(final FileChannel channel, final long position,
+                                 final long size) throws IOException {
+        final ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        long offset = position;
+        while (offset < size) {
+            block.clear();
+            final int read = channel.read(block, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private static String trimLine(final String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    /**
+     * Split a CSV line, values can be quoted with double quotes doubled inside them
+     */
+    static List<String> parseCsv(final String line, final char delimiter) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && value.length() == 0 && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == delimiter) {
+                values.add(value.toString());
+                value.setLength(0);
+                wasQuoted = false;
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Column and type a field is mapped to
+     */
+    private static final class Mapping {
+        private final String column;
+
+        private final ValueType type;
+
+        private Mapping(final String column, final ValueType type) {
+            this.column = column;
+            this.type = type;
+        }
+
+        private Object convert(final Object value) {
+            if (this.type == null || value == JSONObject.NULL) {
+                return value;
+            }
+            final String text = value.toString().trim();
+            switch (this.type) {
+                case INTEGER:
+                    return Long.parseLong(text);
+                case DECIMAL:
+                    return Double.parseDouble(text);
+                case BOOLEAN:
+                    return Boolean.parseBoolean(text);
+                default:
+                    return value.toString();
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final SlicingDice client;
+
+        private final Path path;
+
+        private final Map<String, Mapping> mappings = new HashMap<>();
+
+        private Format format;
+
+        private String entityIdField;
+
+        private char delimiter = ',';
+
+        private boolean ignoreUnmapped;
+
+        private int chunkSize = 32 * 1024 * 1024;
+
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        private int maxEntities = 1000;
+
+        private long maxBytes = 1024 * 1024;
+
+        private int maxParallelFlushes = 2;
+
+        private JSONArray autoCreate;
+
+        private BatchLedger ledger;
+
+        private Path checkpoint;
+
+        private Builder(final SlicingDice client, final Path path) {
+            this.client = client;
+            this.path = path;
+        }
+
+        /**
+         * @param format The file format, CSV for files ending in .csv and NDJSON otherwise by
+         *               default
+         */
+        public Builder format(final Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param entityIdField The field holding the entity id of each record
+         */
+        public Builder entityIdField(final String entityIdField) {
+            this.entityIdField = entityIdField;
+            return this;
+        }
+
+        /**
+         * @param delimiter The separator of CSV values
+         */
+        public Builder delimiter(final char delimiter) {
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * @param field  A field of the records
+         * @param column The column its values are inserted in
+         */
+        public Builder mapColumn(final String field, final String column) {
+            this.mappings.put(field, new Mapping(column, null));
+            return this;
+        }
+
+        /**
+         * @param field  A field of the records
+         * @param column The column its values are inserted in
+         * @param type   The type its values are converted to, records with a value that can't
+         *               be converted are skipped
+         */
+        public Builder mapColumn(final String field, final String column,
+                                 final ValueType type) {
+            this.mappings.put(field, new Mapping(column, type));
+            return this;
+        }
+
+        /**
+         * @param ignoreUnmapped Only insert the mapped fields
+         */
+        public Builder ignoreUnmappedColumns(final boolean ignoreUnmapped) {
+            this.ignoreUnmapped = ignoreUnmapped;
+            return this;
+        }
+
+        /**
+         * @param chunkSize Size in bytes of the chunks parsed in parallel, a checkpoint is only
+         *                  resumed with the chunk size that saved it
+         */
+        public Builder chunkSize(final int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be at least 1");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism Number of chunks parsed at the same time
+         */
+        public Builder parallelism(final int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param maxEntities Max number of entities in an insert request
+         */
+        public Builder maxEntities(final int maxEntities) {
+            this.maxEntities = maxEntities;
+            return this;
+        }
+
+        /**
+         * @param maxBytes Max size in bytes of an insert request body
+         */
+        public Builder maxBytes(final long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param maxParallelFlushes Max number of insert requests in flight per chunk parsed
+         */
+        public Builder maxParallelFlushes(final int maxParallelFlushes) {
+            this.maxParallelFlushes = maxParallelFlushes;
+            return this;
+        }
+
+        /**
+         * @param autoCreate The auto-create setting sent with every insert
+         */
+        public Builder autoCreate(final JSONArray autoCreate) {
+            this.autoCreate = autoCreate;
+            return this;
+        }
+
+        /**
+         * @param ledger Records the inserted rows by their offset in the file, an import
+         *               resumed from the checkpoint skips the rows already inserted. Only used
+         *               with a checkpoint, persist it across runs with
+         *               {@link BatchLedger#exportState()}
+         */
+        public Builder ledger(final BatchLedger ledger) {
+            this.ledger = ledger;
+            return this;
+        }
+
+        /**
+         * @param checkpoint File where the progress is saved and resumed from
+         */
+        public Builder checkpoint(final Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        public FileImporter build() {
+            if (this.entityIdField == null) {
+                throw new IllegalArgumentException("entityIdField must be set");
+            }
+            return new FileImporter(this);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+/**
+ * Progress of a {@link FileImporter}
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class ImportStats {
+
+    private final long records;
+
+    private final long skippedRecords;
+
+    private final long insertedEntities;
+
+    private final long failedEntities;
+
+    private final long bytesRead;
+
+    private final long committedOffset;
+
+    private final long elapsed;
+
+    ImportStats(final long records, final long skippedRecords, final long insertedEntities,
+                final long failedEntities, final long bytesRead, final long committedOffset,
+                final long elapsed) {
+        this.records = records;
+        this.skippedRecords = skippedRecords;
+        this.insertedEntities = insertedEntities;
+        this.failedEntities = failedEntities;
+        this.bytesRead = bytesRead;
+        this.committedOffset = committedOffset;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return the number of records parsed
+     */
+    public long getRecords() {
+        return this.records;
+    }
+
+    /**
+     * @return the number of records that could not be parsed or had no entity id
+     */
+    public long getSkippedRecords() {
+        return this.skippedRecords;
+    }
+
+    public long getInsertedEntities() {
+        return this.insertedEntities;
+    }
+
+    /**
+     * @return the number of entities of the insert requests that failed
+     */
+    public long getFailedEntities() {
+        return this.failedEntities;
+    }
+
+    /**
+     * @return the number of bytes of the file parsed
+     */
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * @return the offset of the file before which every record was inserted, an import
+     * resumed from its checkpoint starts there
+     */
+    public long getCommittedOffset() {
+        return this.committedOffset;
+    }
+
+    /**
+     * @return the time in milliseconds since the import started
+     */
+    public long getElapsed() {
+        return this.elapsed;
+    }
+
+    public double getRecordsPerSecond() {
+        return this.elapsed == 0 ? 0 : this.records * 1000.0 / this.elapsed;
+    }
+
+    public double getBytesPerSecond() {
+        return this.elapsed == 0 ? 0 : this.bytesRead * 1000.0 / this.elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportStats{records=" + this.records + ", skippedRecords=" +
+                this.skippedRecords + ", insertedEntities=" + this.insertedEntities +
+                ", failedEntities=" + this.failedEntities + ", bytesRead=" + this.bytesRead +
+                ", committedOffset=" + this.committedOffset + ", elapsed=" + this.elapsed +
+                "ms}";
+    }
+}
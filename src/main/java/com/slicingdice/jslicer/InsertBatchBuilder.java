@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Builds an insert body without a JSONObject per entity. Columns are declared once with their
+ * type and values are stored in primitive arrays per column, indexed by entity, then the body
+ * is written in a single pass straight to UTF-8 bytes using the encoded column names. A
+ * builder can be cleared and reused for the next batch, keeping its arrays.
+ *
+ * <pre>
+ * final InsertBatchBuilder batch = new InsertBatchBuilder();
+ * final int year = batch.integerColumn("year");
+ * final int model = batch.stringColumn("car-model");
+ * batch.entity("user1@slicingdice.com").set(year, 2016).set(model, "Ford Ka");
+ * slicingDice.insertRaw(batch.toByteBuffer());
+ * </pre>
+ *
+ * Entity ids must be unique in a batch. The builder is not thread-safe.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class InsertBatchBuilder {
+
+    private enum Type {
+        INTEGER,
+        DECIMAL,
+        STRING,
+        BOOLEAN
+    }
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] LONG_MIN = String.valueOf(Long.MIN_VALUE)
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final List<Column> columns = new ArrayList<>();
+
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+
+    private String[] entityIds = new String[INITIAL_CAPACITY];
+
+    private int entities;
+
+    private byte[] autoCreate;
+
+    private byte[] output = new byte[4096];
+
+    private int length;
+
+    /**
+     * Declare a column of integer values
+     *
+     * @return the index of the column, used to set its values
+     */
+    public int integerColumn(final String name) {
+        return this.column(name, Type.INTEGER);
+    }
+
+    /**
+     * Declare a column of decimal values
+     *
+     * @return the index of the column, used to set its values
+     */
+    public int decimalColumn(final String name) {
+        return this.column(name, Type.DECIMAL);
+    }
+
+    /**
+     * Declare a column of string values
+     *
+     * @return the index of the column, used to set its values
+     */
+    public int stringColumn(final String name) {
+        return this.column(name, Type.STRING);
+    }
+
+    /**
+     * Declare a column of boolean values
+     *
+     * @return the index of the column, used to set its values
+     */
+    public int booleanColumn(final String name) {
+        return this.column(name, Type.BOOLEAN);
+    }
+
+    /**
+     * @param autoCreate The auto-create setting of the insert, for example
+     *                   ["dimension", "column"], null to remove it
+     */
+    public InsertBatchBuilder autoCreate(final JSONArray autoCreate) {
+        this.autoCreate = autoCreate == null ? null :
+                ("\"auto-create\":" + autoCreate.toString()).getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Start a new entity, the following values are set on it
+     */
+    public InsertBatchBuilder entity(final String entityId) {
+        if (entityId == null) {
+            throw new IllegalArgumentException("entityId must not be null");
+        }
+        if (this.entities == this.entityIds.length) {
+            this.entityIds = Arrays.copyOf(this.entityIds, this.entities * 2);
+        }
+        this.entityIds[this.entities++] = entityId;
+        return this;
+    }
+
+    public InsertBatchBuilder set(final int column, final long value) {
+        final Column target = this.current(column);
+        if (target.type == Type.DECIMAL) {
+            target.doubles[this.entities - 1] = value;
+        } else {
+            target.check(Type.INTEGER);
+            target.longs[this.entities - 1] = value;
+        }
+        target.present(this.entities - 1);
+        return this;
+    }
+
+    public InsertBatchBuilder set(final int column, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON does not allow " + value);
+        }
+        final Column target = this.current(column);
+        target.check(Type.DECIMAL);
+        target.doubles[this.entities - 1] = value;
+        target.present(this.entities - 1);
+        return this;
+    }
+
+    public InsertBatchBuilder set(final int column, final boolean value) {
+        final Column target = this.current(column);
+        target.check(Type.BOOLEAN);
+        target.longs[this.entities - 1] = value ? 1 : 0;
+        target.present(this.entities - 1);
+        return this;
+    }
+
+    /**
+     * @param value The value, null leaves the column unset for the entity
+     */
+    public InsertBatchBuilder set(final int column, final String value) {
+        final Column target = this.current(column);
+        target.check(Type.STRING);
+        if (value != null) {
+            target.strings[this.entities - 1] = value;
+            target.present(this.entities - 1);
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of entities in the batch
+     */
+    public int size() {
+        return this.entities;
+    }
+
+    /**
+     * Remove the entities, keeping the columns and the allocated arrays
+     */
+    public void clear() {
+        for (final Column column : this.columns) {
+            column.clear(this.entities);
+        }
+        Arrays.fill(this.entityIds, 0, this.entities, null);
+        this.entities = 0;
+    }
+
+    /**
+     * @return a copy of the insert body
+     */
+    public byte[] toBytes() {
+        this.write();
+        return Arrays.copyOf(this.output, this.length);
+    }
+
+    /**
+     * @return the insert body backed by the builder's buffer, valid until the builder is
+     * modified
+     */
+    public ByteBuffer toByteBuffer() {
+        this.write();
+        return ByteBuffer.wrap(this.output, 0, this.length);
+    }
+
+    @Override
+    public String toString() {
+        this.write();
+        return new String(this.output, 0, this.length, StandardCharsets.UTF_8);
+    }
+
+    private int column(final String name, final Type type) {
+        final Integer existing = this.columnIndexes.get(name);
+        if (existing != null) {
+            this.columns.get(existing).check(type);
+            return existing;
+        }
+        final Column column = new Column(
+                (JSONObject.quote(name) + ":").getBytes(StandardCharsets.UTF_8), type,
+                this.entityIds.length);
+        this.columns.add(column);
+        this.columnIndexes.put(name, this.columns.size() - 1);
+        return this.columns.size() - 1;
+    }
+
+    private Column current(final int column) {
+        if (this.entities == 0) {
+            throw new IllegalStateException("SlicingDice: call entity before setting values.");
+        }
+        final Column target = this.columns.get(column);
+        target.ensureCapacity(this.entities);
+        return target;
+    }
+
+    private void write() {
+        this.length = 0;
+        this.append((byte) '{');
+        for (int row = 0; row < this.entities; row++) {
+            if (row > 0) {
+                this.append((byte) ',');
+            }
+            this.appendString(this.entityIds[row]);
+            this.append((byte) ':');
+            this.append((byte) '{');
+            boolean first = true;
+            for (final Column column : this.columns) {
+                if (!column.isPresent(row)) {
+                    continue;
+                }
+                if (!first) {
+                    this.append((byte) ',');
+                }
+                first = false;
+                this.append(column.name);
+                switch (column.type) {
+                    case INTEGER:
+                        this.appendLong(column.longs[row]);
+                        break;
+                    case DECIMAL:
+                        this.appendAscii(Double.toString(column.doubles[row]));
+                        break;
+                    case BOOLEAN:
+                        this.append(column.longs[row] != 0 ? TRUE : FALSE);
+                        break;
+                    default:
+                        this.appendString(column.strings[row]);
+                }
+            }
+            this.append((byte) '}');
+        }
+        if (this.autoCreate != null) {
+            if (this.entities > 0) {
+                this.append((byte) ',');
+            }
+            this.append(this.autoCreate);
+        }
+        this.append((byte) '}');
+    }
+
+    private void ensureOutput(final int extra) {
+        if (this.length + extra > this.output.length) {
+            this.output = Arrays.copyOf(this.output,
+                    Math.max(this.output.length * 2, this.length + extra));
+        }
+    }
+
+    private void append(final byte value) {
+        this.ensureOutput(1);
+        this.output[this.length++] = value;
+    }
+
+    private void append(final byte[] value) {
+        this.ensureOutput(value.length);
+        System.arraycopy(value, 0, this.output, this.length, value.length);
+        this.length += value.length;
+    }
+
+    private void appendAscii(final String value) {
+        this.ensureOutput(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            this.output[this.length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            this.append(LONG_MIN);
+            return;
+        }
+        this.ensureOutput(20);
+        if (value < 0) {
+            this.output[this.length++] = '-';
+            value = -value;
+        }
+        final int start = this.length;
+        do {
+            this.output[this.length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // digits were written from the least significant one
+        for (int i = start, j = this.length - 1; i < j; i++, j--) {
+            final byte digit = this.output[i];
+            this.output[i] = this.output[j];
+            this.output[j] = digit;
+        }
+    }
+
+    /**
+     * Write a quoted JSON string encoded in UTF-8
+     */
+    private void appendString(final String value) {
+        // worst case is 6 bytes per char for escaped control chars
+        this.ensureOutput(value.length() * 6 + 2);
+        final byte[] out = this.output;
+        int position = this.length;
+        out[position++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out[position++] = '\\';
+                out[position++] = (byte) c;
+            } else if (c < 0x20) {
+                out[position++] = '\\';
+                switch (c) {
+                    case '\n':
+                        out[position++] = 'n';
+                        break;
+                    case '\r':
+                        out[position++] = 'r';
+                        break;
+                    case '\t':
+                        out[position++] = 't';
+                        break;
+                    case '\b':
+                        out[position++] = 'b';
+                        break;
+                    case '\f':
+                        out[position++] = 'f';
+                        break;
+                    default:
+                        out[position++] = 'u';
+                        out[position++] = '0';
+                        out[position++] = '0';
+                        out[position++] = HEX[c >> 4];
+                        out[position++] = HEX[c & 0xf];
+                }
+            } else if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xc0 | c >> 6);
+                out[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xf0 | codePoint >> 18);
+                out[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                out[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                out[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xe0 | c >> 12);
+                out[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                out[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        out[position++] = '"';
+        this.length = position;
+    }
+
+    /**
+     * Values of a column indexed by entity, with a bitset of the entities having a value
+     */
+    private static final class Column {
+        private final byte[] name;
+
+        private final Type type;
+
+        private long[] longs;
+
+        private double[] doubles;
+
+        private String[] strings;
+
+        private long[] presence;
+
+        private Column(final byte[] name, final Type type, final int capacity) {
+            this.name = name;
+            this.type = type;
+            this.allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            switch (this.type) {
+                case DECIMAL:
+                    this.doubles = this.doubles == null ? new double[capacity] :
+                            Arrays.copyOf(this.doubles, capacity);
+                    break;
+                case STRING:
+                    this.strings = this.strings == null ? new String[capacity] :
+                            Arrays.copyOf(this.strings, capacity);
+                    break;
+                default:
+                    this.longs = this.longs == null ? new long[capacity] :
+                            Arrays.copyOf(this.longs, capacity);
+            }
+            final int words = (capacity + 63) >>> 6;
+            this.presence = this.presence == null ? new long[words] :
+                    Arrays.copyOf(this.presence, words);
+        }
+
+        private int capacity() {
+            switch (this.type) {
+                case DECIMAL:
+                    return this.doubles.length;
+                case STRING:
+                    return this.strings.length;
+                default:
+                    return this.longs.length;
+            }
+        }
+
+        private void ensureCapacity(final int entities) {
+            final int capacity = this.capacity();
+            if (entities > capacity) {
+                this.allocate(Math.max(entities, capacity * 2));
+            }
+        }
+
+        private void check(final Type expected) {
+            if (this.type != expected) {
+                throw new IllegalArgumentException("SlicingDice: column " +
+                        new String(this.name, StandardCharsets.UTF_8) + " holds " + this.type +
+                        " values, not " + expected + ".");
+            }
+        }
+
+        private void present(final int row) {
+            this.presence[row >>> 6] |= 1L << row;
+        }
+
+        private boolean isPresent(final int row) {
+            return row >>> 6 < this.presence.length &&
+                    (this.presence[row >>> 6] & 1L << row) != 0;
+        }
+
+        private void clear(final int entities) {
+            Arrays.fill(this.presence, 0, Math.min(this.presence.length,
+                    (entities + 63) >>> 6), 0L);
+            if (this.strings != null) {
+                Arrays.fill(this.strings, 0, Math.min(this.strings.length, entities), null);
+            }
+        }
+    }
+}
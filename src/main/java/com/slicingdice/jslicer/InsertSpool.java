@@ -0,0 +1,1043 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
+import com.slicingdice.jslicer.exceptions.RequestRateLimitException;
+import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
+import com.slicingdice.jslicer.exceptions.client.CircuitOpenException;
+import com.slicingdice.jslicer.exceptions.client.ConcurrencyLimitException;
+import com.slicingdice.jslicer.exceptions.client.SpoolFullException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Durable write-ahead spool for inserts. Insert bodies are appended to memory-mapped segment
+ * files and inserted in the background in the order they were appended, so producers keep
+ * going at full rate while the API is unreachable and nothing is lost if the process stops:
+ * the spool resumes from its last acknowledged record when opened again on the same directory.
+ * Up to maxInFlight records are inserted at the same time and acknowledged in order, so the
+ * records of the window may be applied in any order but the saved position never passes a
+ * record not inserted yet.
+ *
+ * Each record is its length, its CRC32 and the insert body. A record with a wrong checksum,
+ * usually written when the process crashed, ends the segment. Segments are rotated once full
+ * and deleted once every record they hold was inserted. The disk usage is bounded by
+ * maxSegments segments of segmentSize bytes, appends fail with a {@link SpoolFullException}
+ * when every segment is in use.
+ *
+ * Inserts failing because of the network, a 5xx response, a request timeout or the rate limit
+ * are retried with exponential backoff until they succeed or the spool is closed, so an outage
+ * of the API is absorbed however long it lasts. Other failures without an HTTP status, like a
+ * successful response that is not JSON, are retried up to maxAttempts attempts. Inserts
+ * rejected for their body size, with error 1507 or HTTP status 413, are split in halves.
+ * Inserts rejected for their content with another 4xx response, or given up on, are appended
+ * with their body to the dead letter file and reported to the {@link BatchListener}.
+ *
+ * Delivery is at least once: a record inserted right before the process stopped may be
+ * inserted again when the spool is opened again. With a {@link BatchLedger} persisted across
+ * restarts, every inserted record is acknowledged by its position in the spool, and the
+ * records found in the segments when the spool is opened are skipped if the ledger
+ * acknowledged them. Records appended after the spool was opened are always inserted.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class InsertSpool implements Closeable {
+
+    /**
+     * When appended records are written to the disk before the append is acknowledged
+     */
+    public enum FsyncPolicy {
+        /**
+         * Force the segment to disk on every append, the returned future is completed once
+         * the record is on disk
+         */
+        ALWAYS,
+        /**
+         * Force the segment to disk every fsyncIntervalMs, the returned futures are completed
+         * once their records are on disk
+         */
+        INTERVAL,
+        /**
+         * Leave the writes to the operating system, appends are acknowledged immediately and
+         * survive a crash of the process but not of the machine
+         */
+        NEVER
+    }
+
+    private static final Logger logger = Logger.getLogger(InsertSpool.class.getCanonicalName());
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CURSOR_FILE = "cursor";
+
+    private static final String DEAD_LETTER_FILE = "dead-letter.ndjson";
+
+    private static final String ID_FILE = "spool-id";
+
+    private static final String AUTO_CREATE = "auto-create";
+
+    private static final int HEADER_SIZE = 8;
+
+    private final SlicingDice client;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long retryBaseDelay;
+
+    private final long retryMaxDelay;
+
+    private final BatchListener listener;
+
+    private final BatchLedger ledger;
+
+    private final int maxAttempts;
+
+    private final int maxInFlight;
+
+    private final Path deadLetterFile;
+
+    private final BodySizeCeiling ceiling;
+
+    /**
+     * Random id of the spool directory, prefixing the ledger keys of its records
+     */
+    private final String id;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition appended = this.lock.newCondition();
+
+    /**
+     * Segments not fully inserted yet, oldest first, the last one is the one being appended to
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private final FileChannel cursor;
+
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Schedules the retries of failed inserts
+     */
+    private final ScheduledExecutorService retrier;
+
+    private final Thread replayer;
+
+    private List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+
+    /**
+     * Position in the oldest segment of the next record to insert
+     */
+    private int readPosition;
+
+    private long appendedRecords;
+
+    private long insertedRecords;
+
+    private volatile boolean closed;
+
+    private InsertSpool(final Builder builder) throws IOException {
+        this.client = builder.client;
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxSegments = (int) Math.max(2, builder.maxDiskBytes / builder.segmentSize);
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.retryBaseDelay = builder.retryBaseDelay;
+        this.retryMaxDelay = builder.retryMaxDelay;
+        this.listener = builder.listener;
+        this.ledger = builder.ledger;
+        this.maxAttempts = builder.maxAttempts;
+        this.maxInFlight = builder.maxInFlight;
+        this.deadLetterFile = builder.deadLetterFile != null ? builder.deadLetterFile :
+                builder.directory.resolve(DEAD_LETTER_FILE);
+        this.ceiling = builder.client.insertSizeCeiling();
+
+        Files.createDirectories(this.directory);
+        this.id = this.loadId();
+        this.cursor = FileChannel.open(this.directory.resolve(CURSOR_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recover();
+
+        if (this.fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "slicingdice-spool-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::sync, builder.fsyncIntervalMs,
+                    builder.fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        this.retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "slicingdice-spool-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.replayer = new Thread(this::replay, "slicingdice-spool-replay");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    /**
+     * @param client    The client making the insert requests
+     * @param directory The directory holding the segments, used by a single spool at a time
+     */
+    public static Builder builder(final SlicingDice client, final Path directory) {
+        return new Builder(client, directory);
+    }
+
+    /**
+     * Append an insert to the spool
+     *
+     * @param data The entities to insert, in the Slicing Dice insert format
+     * @return a future completed once the insert is durable according to the fsync policy
+     * @throws SpoolFullException    if the spool reached its max disk usage
+     * @throws IllegalStateException if the spool is closed
+     */
+    public CompletableFuture<Void> append(final JSONObject data) {
+        return this.append(data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Append an already serialized insert body to the spool
+     *
+     * @param body The UTF-8 JSON insert body
+     * @return a future completed once the insert is durable according to the fsync policy
+     * @throws SpoolFullException       if the spool reached its max disk usage
+     * @throws IllegalArgumentException if the body doesn't fit in a segment
+     * @throws IllegalStateException    if the spool is closed
+     */
+    public CompletableFuture<Void> append(final byte[] body) {
+        if (body.length == 0 || body.length > this.segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("SlicingDice: an insert body must be between 1 " +
+                    "and " + (this.segmentSize - HEADER_SIZE) + " bytes to be spooled.");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("SlicingDice: the InsertSpool is closed.");
+            }
+            Segment active = this.segments.peekLast();
+            if (active.end + HEADER_SIZE + body.length > this.segmentSize) {
+                if (this.segments.size() >= this.maxSegments) {
+                    throw new SpoolFullException("SlicingDice: the insert spool is full.");
+                }
+                if (this.fsyncPolicy != FsyncPolicy.NEVER) {
+                    active.buffer.force();
+                }
+                active = this.createSegment(active.id + 1);
+            }
+
+            final int position = active.end;
+            final ByteBuffer target = active.buffer.duplicate();
+            target.position(position + HEADER_SIZE);
+            target.put(body);
+            active.buffer.putInt(position + 4, (int) crc.getValue());
+            active.buffer.putInt(position, body.length);
+            active.end = position + HEADER_SIZE + body.length;
+            this.appendedRecords++;
+            this.appended.signalAll();
+
+            if (this.fsyncPolicy == FsyncPolicy.ALWAYS) {
+                active.buffer.force();
+            } else if (this.fsyncPolicy == FsyncPolicy.INTERVAL) {
+                final CompletableFuture<Void> synced = new CompletableFuture<>();
+                this.unsynced.add(synced);
+                return synced;
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records appended and not inserted yet since the spool was opened
+     */
+    public long getPending() {
+        this.lock.lock();
+        try {
+            return this.appendedRecords - this.insertedRecords;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes used on disk by the segments
+     */
+    public long getDiskUsage() {
+        this.lock.lock();
+        try {
+            return (long) this.segments.size() * this.segmentSize;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop appending and replaying, the records not inserted yet stay on disk and are inserted
+     * when a spool is opened again on the same directory
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.appended.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.replayer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.retrier.shutdownNow();
+        if (this.syncer != null) {
+            this.syncer.shutdownNow();
+        }
+
+        this.lock.lock();
+        try {
+            this.segments.peekLast().buffer.force();
+            this.sync();
+            for (final Segment segment : this.segments) {
+                segment.channel.close();
+            }
+            this.cursor.force(true);
+            this.cursor.close();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Load the segments left by a previous spool and open a new segment to append to
+     */
+    private void recover() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException ignored) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        long cursorSegment = -1;
+        int cursorPosition = 0;
+        if (this.cursor.size() >= 12) {
+            final ByteBuffer saved = ByteBuffer.allocate(12);
+            this.cursor.read(saved, 0);
+            saved.flip();
+            cursorSegment = saved.getLong();
+            cursorPosition = saved.getInt();
+        }
+
+        long nextId = 0;
+        for (final long id : ids) {
+            nextId = id + 1;
+            if (id < cursorSegment) {
+                Files.deleteIfExists(this.segmentPath(id));
+                continue;
+            }
+            final FileChannel channel = FileChannel.open(this.segmentPath(id),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final Segment segment = new Segment(id, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            segment.end = this.scan(segment, id == cursorSegment ? cursorPosition : 0);
+            segment.recovered = segment.end;
+            this.segments.addLast(segment);
+            if (id == cursorSegment) {
+                this.readPosition = Math.min(cursorPosition, segment.end);
+            }
+        }
+        this.createSegment(Math.max(nextId, cursorSegment));
+    }
+
+    /**
+     * @return the id of the spool directory, created the first time the directory is used
+     */
+    private String loadId() throws IOException {
+        final Path file = this.directory.resolve(ID_FILE);
+        if (Files.exists(file)) {
+            final String saved = new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+                    .trim();
+            if (!saved.isEmpty()) {
+                return saved;
+            }
+        }
+        final String created = UUID.randomUUID().toString();
+        Files.write(file, created.getBytes(StandardCharsets.UTF_8));
+        return created;
+    }
+
+    /**
+     * @param from Position of the first record counted as pending, the records before it were
+     *             already inserted
+     * @return the position after the last valid record of a segment
+     */
+    private int scan(final Segment segment, final int from) {
+        final MappedByteBuffer buffer = segment.buffer;
+        final CRC32 crc = new CRC32();
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            crc.reset();
+            crc.update(this.read(segment, position, length), 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logger.warning("SlicingDice: ignoring the corrupted end of spool segment " +
+                        segment.id + " at " + position + ".");
+                break;
+            }
+            if (position >= from) {
+                this.appendedRecords++;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private Segment createSegment(final long id) throws IOException {
+        final FileChannel channel = FileChannel.open(this.segmentPath(id),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Segment segment = new Segment(id, channel,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+        this.segments.addLast(segment);
+        return segment;
+    }
+
+    private Path segmentPath(final long id) {
+        return this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id,
+                SEGMENT_SUFFIX));
+    }
+
+    private byte[] read(final Segment segment, final int position, final int length) {
+        final byte[] body = new byte[length];
+        final ByteBuffer source = segment.buffer.duplicate();
+        source.position(position + HEADER_SIZE);
+        source.get(body);
+        return body;
+    }
+
+    /**
+     * Force the segment being appended to and acknowledge the appends waiting for it
+     */
+    private void sync() {
+        final List<CompletableFuture<Void>> synced;
+        final MappedByteBuffer buffer;
+        this.lock.lock();
+        try {
+            if (this.unsynced.isEmpty()) {
+                return;
+            }
+            synced = this.unsynced;
+            this.unsynced = new ArrayList<>();
+            buffer = this.segments.peekLast().buffer;
+        } finally {
+            this.lock.unlock();
+        }
+        // rotated segments were forced when rotated, only the last one is left
+        buffer.force();
+        for (final CompletableFuture<Void> future : synced) {
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Insert the spooled records, keeping up to maxInFlight of them in flight and acknowledging
+     * them in order, until the spool is closed
+     */
+    private void replay() {
+        final ArrayDeque<Delivery> window = new ArrayDeque<>();
+        Segment sending = null;
+        int sendPosition = 0;
+        while (true) {
+            final Delivery delivery;
+            final byte[] body;
+            final String key;
+            final boolean replayed;
+            this.lock.lock();
+            try {
+                if (sending == null) {
+                    sending = this.segments.peekFirst();
+                    sendPosition = this.readPosition;
+                }
+                while (true) {
+                    if (this.closed) {
+                        return;
+                    }
+                    while (!window.isEmpty() && window.peekFirst().done.isDone()) {
+                        this.acknowledge(window.pollFirst());
+                    }
+                    final Segment oldest = this.segments.peekFirst();
+                    if (oldest != sending && this.readPosition >= oldest.end) {
+                        this.compact(oldest);
+                        continue;
+                    }
+                    if (sendPosition >= sending.end && sending != this.segments.peekLast()) {
+                        sending = this.next(sending);
+                        sendPosition = 0;
+                        continue;
+                    }
+                    if (window.size() < this.maxInFlight && sendPosition < sending.end) {
+                        break;
+                    }
+                    this.appended.awaitUninterruptibly();
+                }
+                body = this.read(sending, sendPosition, sending.buffer.getInt(sendPosition));
+                key = this.ledger == null ? null : this.id + ":" + sending.id + ":" +
+                        sendPosition;
+                replayed = sendPosition < sending.recovered;
+                sendPosition += HEADER_SIZE + body.length;
+                delivery = new Delivery(sending, sendPosition);
+                window.addLast(delivery);
+            } finally {
+                this.lock.unlock();
+            }
+
+            this.deliver(body, key, replayed).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    // only stopped by closing, the record is inserted again on the next open
+                    return;
+                }
+                this.lock.lock();
+                try {
+                    delivery.done.complete(null);
+                    this.appended.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+            });
+        }
+    }
+
+    /**
+     * Move the saved position after a delivered record, must be called holding the lock
+     */
+    private void acknowledge(final Delivery delivery) {
+        while (this.segments.peekFirst() != delivery.segment) {
+            // every record of the older segments was acknowledged
+            this.compact(this.segments.peekFirst());
+        }
+        this.readPosition = delivery.end;
+        this.insertedRecords++;
+        this.saveCursor(delivery.segment.id, this.readPosition);
+    }
+
+    /**
+     * @return the segment following a segment, must be called holding the lock
+     */
+    private Segment next(final Segment segment) {
+        final Iterator<Segment> iterator = this.segments.iterator();
+        while (iterator.next() != segment) {
+            // skip the older segments
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Insert a record and report its outcome. A record rejected for its body size is split in
+     * halves inserted one after the other, a record rejected for its content or failing after
+     * maxAttempts attempts is written to the dead letter file.
+     *
+     * @param key      Ledger key of the record, its position in the spool, null without ledger
+     * @param replayed Whether the record was spooled before the spool was opened, it is then
+     *                 skipped if the ledger acknowledged its key
+     * @return a future completed once the record was delivered, or exceptionally if the spool
+     * was closed before
+     */
+    private CompletableFuture<Void> deliver(final byte[] body, final String key,
+                                            final boolean replayed) {
+        if (replayed && key != null && this.ledger.isAcknowledged(key)) {
+            this.report(new BatchOutcome(Collections.<String>emptyList(), body.length, 0, null,
+                    null, true));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final long start = System.nanoTime();
+        return this.insert(body).thenCompose(error -> {
+            final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (error == null) {
+                this.ceiling.onAccepted(body.length);
+                if (key != null) {
+                    this.ledger.acknowledge(key);
+                }
+                this.report(new BatchOutcome(Collections.<String>emptyList(), body.length,
+                        latency, null, null));
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final JSONObject data = parse(body);
+            final List<String> ids = data == null ? Collections.<String>emptyList() :
+                    entityIds(data);
+            if (isTooLarge(error) && ids.size() > 1) {
+                this.ceiling.onRejected(body.length);
+                final JSONObject first = new JSONObject();
+                final JSONObject second = new JSONObject();
+                if (data.has(AUTO_CREATE)) {
+                    first.put(AUTO_CREATE, data.get(AUTO_CREATE));
+                    second.put(AUTO_CREATE, data.get(AUTO_CREATE));
+                }
+                for (int i = 0; i < ids.size(); i++) {
+                    (i < ids.size() / 2 ? first : second).put(ids.get(i), data.get(ids.get(i)));
+                }
+                return this.deliver(first.toString().getBytes(StandardCharsets.UTF_8),
+                        half(key, 0), replayed).thenCompose(ignored -> this.deliver(
+                        second.toString().getBytes(StandardCharsets.UTF_8), half(key, 1),
+                        replayed));
+            }
+
+            this.deadLetter(body, data, error);
+            this.report(new BatchOutcome(ids, body.length, latency, null, error));
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Insert a record, retrying transient errors until the spool is closed and the errors
+     * without an HTTP status up to maxAttempts attempts
+     *
+     * @return a future completed with null if inserted or with the last error if given up,
+     * completed exceptionally if the spool was closed
+     */
+    private CompletableFuture<Throwable> insert(final byte[] body) {
+        final CompletableFuture<Throwable> result = new CompletableFuture<>();
+        this.attempt(body, 0, 0, result);
+        return result;
+    }
+
+    private void attempt(final byte[] body, final int attempt, final int failures,
+                         final CompletableFuture<Throwable> result) {
+        if (this.closed) {
+            result.completeExceptionally(new CancellationException("SlicingDice: the " +
+                    "InsertSpool is closed."));
+            return;
+        }
+        this.client.insertRawAsync(body).whenComplete((response, error) -> {
+            if (error == null) {
+                result.complete(null);
+                return;
+            }
+            final Throwable cause = error instanceof CompletionException &&
+                    error.getCause() != null ? error.getCause() : error;
+            final int failed = isTransient(cause) ? failures : failures + 1;
+            if (this.closed) {
+                result.completeExceptionally(new CancellationException("SlicingDice: the " +
+                        "InsertSpool is closed."));
+                return;
+            }
+            if (isRejection(cause) || failed >= this.maxAttempts) {
+                result.complete(cause);
+                return;
+            }
+
+            final long delay = Math.min(this.retryMaxDelay,
+                    this.retryBaseDelay << Math.min(attempt, 30));
+            logger.log(Level.FINE, "SlicingDice: spooled insert failed, retrying in " + delay +
+                    "ms.", cause);
+            try {
+                this.retrier.schedule(() -> this.attempt(body, attempt + 1, failed, result),
+                        delay, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                result.completeExceptionally(new CancellationException("SlicingDice: the " +
+                        "InsertSpool is closed."));
+            }
+        });
+    }
+
+    /**
+     * @return true for the errors retried as long as needed: the request didn't reach the API,
+     * the API failed or timed out, asked to slow down, or the client held the request back
+     */
+    private static boolean isTransient(final Throwable error) {
+        final Throwable cause = error.getCause();
+        if (error instanceof RequestRateLimitException ||
+                error instanceof CircuitOpenException ||
+                error instanceof ConcurrencyLimitException ||
+                cause instanceof IOException || cause instanceof TimeoutException) {
+            return true;
+        }
+        if (!(error instanceof SlicingDiceException)) {
+            return false;
+        }
+        final int statusCode = ((SlicingDiceException) error).getStatusCode();
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    /**
+     * @return true for the 4xx errors the API returned about the content of the insert,
+     * retrying them would fail again
+     */
+    private static boolean isRejection(final Throwable error) {
+        if (!(error instanceof SlicingDiceException) || isTransient(error)) {
+            return false;
+        }
+        final int statusCode = ((SlicingDiceException) error).getStatusCode();
+        return statusCode >= 400 && statusCode < 500;
+    }
+
+    /**
+     * @return the ledger key of a half of a split record, null without ledger
+     */
+    private static String half(final String key, final int half) {
+        return key == null ? null : key + "." + half;
+    }
+
+    private static boolean isTooLarge(final Throwable error) {
+        return error instanceof RequestBodySizeExceededException ||
+                error instanceof SlicingDiceException &&
+                        ((SlicingDiceException) error).getStatusCode() == 413;
+    }
+
+    /**
+     * @return the parsed insert body, null if it is not a JSON object
+     */
+    private static JSONObject parse(final byte[] body) {
+        try {
+            return new JSONObject(new String(body, StandardCharsets.UTF_8));
+        } catch (final JSONException e) {
+            return null;
+        }
+    }
+
+    private static List<String> entityIds(final JSONObject data) {
+        final List<String> ids = new ArrayList<>();
+        for (final String key : data.keySet()) {
+            if (!AUTO_CREATE.equals(key)) {
+                ids.add(key);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Append a record given up on to the dead letter file, one JSON object per line with the
+     * insert "body", as JSON or as a string if it isn't valid JSON, and the "error"
+     */
+    private void deadLetter(final byte[] body, final JSONObject data, final Throwable error) {
+        final JSONObject letter = new JSONObject()
+                .put("body", data != null ? data : new String(body, StandardCharsets.UTF_8))
+                .put("error", String.valueOf(error));
+        final byte[] line = (letter.toString() + '\n').getBytes(StandardCharsets.UTF_8);
+        try {
+            Files.write(this.deadLetterFile, line, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (final IOException e) {
+            logger.log(Level.SEVERE, "SlicingDice: could not write a rejected insert to the " +
+                    "dead letter file, its body was " + new String(body, StandardCharsets.UTF_8),
+                    e);
+        }
+    }
+
+    private void report(final BatchOutcome outcome) {
+        try {
+            this.listener.onBatch(outcome);
+        } catch (final RuntimeException e) {
+            logger.log(Level.WARNING, "SlicingDice: batch listener failed.", e);
+        }
+    }
+
+    /**
+     * Delete a segment whose records were all inserted, must be called holding the lock
+     */
+    private void compact(final Segment segment) {
+        this.segments.pollFirst();
+        this.readPosition = 0;
+        this.saveCursor(this.segments.peekFirst().id, 0);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(this.segmentPath(segment.id));
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "SlicingDice: could not delete spool segment " +
+                    segment.id + ".", e);
+        }
+    }
+
+    /**
+     * Persist the position of the next record to insert, must be called holding the lock
+     */
+    private void saveCursor(final long segment, final int position) {
+        final ByteBuffer saved = ByteBuffer.allocate(12);
+        saved.putLong(segment).putInt(position).flip();
+        try {
+            this.cursor.write(saved, 0);
+            if (this.fsyncPolicy == FsyncPolicy.ALWAYS) {
+                this.cursor.force(false);
+            }
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "SlicingDice: could not save the spool cursor.", e);
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Position after the last record
+         */
+        private int end;
+
+        /**
+         * Position after the last record found when the spool was opened, the records before
+         * it may have been inserted before the spool was stopped
+         */
+        private int recovered;
+
+        private Segment(final long id, final FileChannel channel,
+                        final MappedByteBuffer buffer) {
+            this.id = id;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A record being inserted
+     */
+    private static final class Delivery {
+        private final Segment segment;
+
+        /**
+         * Position after the record in its segment
+         */
+        private final int end;
+
+        /**
+         * Completed holding the lock once the record was delivered
+         */
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Delivery(final Segment segment, final int end) {
+            this.segment = segment;
+            this.end = end;
+        }
+    }
+
+    public static class Builder {
+
+        private final SlicingDice client;
+
+        private final Path directory;
+
+        private int segmentSize = 64 * 1024 * 1024;
+
+        private long maxDiskBytes = 1024L * 1024 * 1024;
+
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+
+        private long fsyncIntervalMs = 100;
+
+        private long retryBaseDelay = 100;
+
+        private long retryMaxDelay = 30000;
+
+        private BatchListener listener = outcome -> { };
+
+        private BatchLedger ledger;
+
+        private int maxAttempts = 10;
+
+        private int maxInFlight = 4;
+
+        private Path deadLetterFile;
+
+        private Builder(final SlicingDice client, final Path directory) {
+            this.client = client;
+            this.directory = directory;
+        }
+
+        /**
+         * @param segmentSize Size in bytes of each segment file, the max size of an insert
+         */
+        public Builder segmentSize(final int segmentSize) {
+            if (segmentSize <= HEADER_SIZE) {
+                throw new IllegalArgumentException("segmentSize must be greater than " +
+                        HEADER_SIZE);
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxDiskBytes Max bytes used by the segments, at least two segments are used
+         */
+        public Builder maxDiskBytes(final long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        /**
+         * @param fsyncPolicy When appends are forced to disk before being acknowledged
+         */
+        public Builder fsyncPolicy(final FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * @param fsyncIntervalMs Time in milliseconds between two syncs of the INTERVAL policy
+         */
+        public Builder fsyncIntervalMs(final long fsyncIntervalMs) {
+            if (fsyncIntervalMs < 1) {
+                throw new IllegalArgumentException("fsyncIntervalMs must be at least 1");
+            }
+            this.fsyncIntervalMs = fsyncIntervalMs;
+            return this;
+        }
+
+        /**
+         * @param baseDelay Delay in milliseconds before retrying a failed insert, doubled on
+         *                  each attempt
+         * @param maxDelay  Max delay in milliseconds between two attempts
+         */
+        public Builder retryDelay(final long baseDelay, final long maxDelay) {
+            this.retryBaseDelay = baseDelay;
+            this.retryMaxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts Max number of attempts of an insert failing without an HTTP status
+         *                    nor a network error, like a successful response that is not JSON,
+         *                    before it is written to the dead letter file
+         */
+        public Builder maxAttempts(final int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight Max number of records inserted at the same time, 1 to apply the
+         *                    records strictly in the order they were appended
+         */
+        public Builder maxInFlight(final int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param deadLetterFile File receiving the inserts given up on, one JSON object per line
+         *                       with their "body" and "error", dead-letter.ndjson in the spool
+         *                       directory by default
+         */
+        public Builder deadLetterFile(final Path deadLetterFile) {
+            this.deadLetterFile = deadLetterFile;
+            return this;
+        }
+
+        /**
+         * @param listener Receives the outcome of every replayed insert, only the outcomes of
+         *                 failed inserts have entity ids and the responses are empty
+         */
+        public Builder listener(final BatchListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener must not be null");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param ledger Records the inserted records by their position in the spool, a record
+         *               found in the spool when it is opened is skipped if acknowledged.
+         *               Persist it across restarts with {@link BatchLedger#exportState()}
+         */
+        public Builder ledger(final BatchLedger ledger) {
+            this.ledger = ledger;
+            return this;
+        }
+
+        /**
+         * Open the spool, inserting the records left by a previous spool on the same directory
+         *
+         * @throws IOException if the directory or its segments can't be opened
+         */
+        public InsertSpool build() throws IOException {
+            return new InsertSpool(this);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONObject;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams subscriber inserting the records it receives in batches. Each record is a
+ * JSONObject in the Slicing Dice insert format, usually with a single entity. Records are only
+ * requested from upstream when there is room for them: the subscriber first requests enough
+ * records to fill maxInFlight batches, then requests as many records as a batch carried each
+ * time one of its insert requests completes.
+ *
+ * A batch rejected by the API for its size is split in halves on entity boundaries, recursively
+ * if needed, and the halves are resent in parallel. Once a half is accepted, later batches are
+ * limited to the number of entities of the largest half accepted since the rejection. Batches
+ * are also kept under the insert body size the client learned from the rejections of every
+ * inserter, see {@link SlicingDice#getInsertSizeCeiling()}.
+ *
+ * With coalescing enabled, an entity received again while it is in the current batch is merged
+ * into it, see {@link BulkInserter}. A batch is sent once it holds batchSize entities or
+ * batchSize records, whichever comes first.
+ *
+ * If an insert fails, or a record can't be added, the upstream subscription is cancelled and
+ * {@link #completion()} completes exceptionally once the batches in flight are done.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class InsertSubscriber implements Subscriber<JSONObject> {
+
+    private static final String AUTO_CREATE = "auto-create";
+
+    private final SlicingDice client;
+
+    private final int batchSize;
+
+    private final int maxInFlight;
+
+    private final boolean coalesce;
+
+    private final BodySizeCeiling ceiling;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ArrayDeque<Batch> pending = new ArrayDeque<>();
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private final AtomicLong inserted = new AtomicLong();
+
+    private Subscription subscription;
+
+    private Batch batch = new Batch();
+
+    private int inFlight;
+
+    /**
+     * Max number of entities per batch, lowered when a half of a batch rejected for its size
+     * is accepted
+     */
+    private int batchLimit;
+
+    /**
+     * Smallest number of entities of a batch rejected for its size
+     */
+    private int rejectedEntities = Integer.MAX_VALUE;
+
+    /**
+     * Largest number of entities of an accepted half below rejectedEntities
+     */
+    private int acceptedEntities;
+
+    private boolean upstreamDone;
+
+    private Throwable failure;
+
+    private InsertSubscriber(final Builder builder) {
+        this.client = builder.client;
+        this.batchSize = builder.batchSize;
+        this.maxInFlight = builder.maxInFlight;
+        this.coalesce = builder.coalesce;
+        this.ceiling = builder.client.insertSizeCeiling();
+        this.batchLimit = builder.batchSize;
+    }
+
+    /**
+     * @param client The client making the insert requests
+     */
+    public static Builder builder(final SlicingDice client) {
+        return new Builder(client);
+    }
+
+    /**
+     * @return a future completed when upstream completed and every batch was inserted, or
+     * exceptionally with the first insert or upstream error
+     */
+    public CompletableFuture<Void> completion() {
+        return this.completion;
+    }
+
+    /**
+     * @return the number of entities successfully inserted
+     */
+    public long getInserted() {
+        return this.inserted.get();
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        this.lock.lock();
+        try {
+            if (this.subscription != null) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        } finally {
+            this.lock.unlock();
+        }
+        subscription.request((long) this.batchSize * this.maxInFlight);
+    }
+
+    @Override
+    public void onNext(final JSONObject record) {
+        if (record == null) {
+            throw new NullPointerException("SlicingDice: a record must not be null.");
+        }
+        final List<Batch> ready = new ArrayList<>();
+        Subscription cancelled = null;
+        this.lock.lock();
+        try {
+            if (this.failure != null) {
+                return;
+            }
+            try {
+                this.add(record, ready);
+                this.schedule(ready);
+            } catch (final RuntimeException e) {
+                // onNext must return normally, an invalid record fails the subscriber instead
+                this.failure = e;
+                this.pending.clear();
+                ready.clear();
+                cancelled = this.subscription;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (cancelled != null) {
+            cancelled.cancel();
+            this.tryComplete();
+            return;
+        }
+        this.send(ready);
+    }
+
+    /**
+     * Add a record to the current batch, must be called holding the lock
+     *
+     * @param ready Receives the batches completed by the record
+     */
+    private void add(final JSONObject record, final List<Batch> ready) {
+        final long maxBytes = this.ceiling.get();
+        for (final String key : record.keySet()) {
+            if (AUTO_CREATE.equals(key)) {
+                this.batch.data.put(key, record.get(key));
+                continue;
+            }
+            final Object value = record.get(key);
+            final long size = BulkInserter.utf8Length(JSONObject.quote(key)) +
+                    BulkInserter.utf8Length(JSONObject.valueToString(value)) + 2;
+            if (this.coalesce && this.batch.data.has(key) && this.batch.merge(key,
+                    record.getJSONObject(key))) {
+                this.batch.bytes += size;
+                continue;
+            }
+            // an entity already in the batch is sent first so its values are not replaced
+            if (this.batch.data.has(key) || this.batch.entities >= this.batchLimit ||
+                    this.batch.entities > 0 && this.batch.bytes + size > maxBytes) {
+                ready.add(this.takeBatch(record));
+            }
+            this.batch.data.put(key, value);
+            this.batch.entities++;
+            this.batch.bytes += size;
+        }
+        this.batch.records++;
+        // records merged into an entity add no entity, the record count keeps the batches
+        // and so the requests to upstream going
+        if (this.batch.entities >= this.batchLimit || this.batch.entities > 0 &&
+                (this.batch.records >= this.batchSize || this.batch.bytes >= maxBytes)) {
+            ready.add(this.takeBatch(record));
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        this.finishUpstream(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        this.finishUpstream(null);
+    }
+
+    private void finishUpstream(final Throwable throwable) {
+        final List<Batch> ready = new ArrayList<>();
+        this.lock.lock();
+        try {
+            this.upstreamDone = true;
+            if (throwable != null && this.failure == null) {
+                this.failure = throwable;
+            }
+            if (this.batch.entities > 0 && this.failure == null) {
+                ready.add(this.takeBatch(null));
+            }
+            this.schedule(ready);
+        } finally {
+            this.lock.unlock();
+        }
+        this.send(ready);
+        this.tryComplete();
+    }
+
+    /**
+     * Replace the current batch by a new one, must be called holding the lock
+     *
+     * @param record The record being added, its auto-create setting is kept in the new batch
+     */
+    private Batch takeBatch(final JSONObject record) {
+        final Batch full = this.batch;
+        this.batch = new Batch();
+        if (full.data.has(AUTO_CREATE)) {
+            this.batch.data.put(AUTO_CREATE, full.data.get(AUTO_CREATE));
+        } else if (record != null && record.has(AUTO_CREATE)) {
+            this.batch.data.put(AUTO_CREATE, record.get(AUTO_CREATE));
+        }
+        return full;
+    }
+
+    /**
+     * Keep in the given list only the batches that can be sent now, queueing the others until
+     * a batch in flight completes. Must be called holding the lock.
+     */
+    private void schedule(final List<Batch> ready) {
+        this.pending.addAll(ready);
+        ready.clear();
+        while (this.inFlight < this.maxInFlight && !this.pending.isEmpty()) {
+            this.inFlight++;
+            ready.add(this.pending.poll());
+        }
+    }
+
+    private void send(final List<Batch> ready) {
+        for (final Batch batch : ready) {
+            this.insert(batch.data, batch.entities, false).whenComplete((result, error) ->
+                    this.onBatchDone(batch, unwrap(error)));
+        }
+    }
+
+    /**
+     * Insert entities, splitting them in halves while the API rejects the body size
+     *
+     * @param half true for a half of a batch rejected for its size
+     */
+    private CompletableFuture<Void> insert(final JSONObject data, final int entities,
+                                           final boolean half) {
+        final byte[] body = data.toString().getBytes(StandardCharsets.UTF_8);
+        return this.client.insertRawAsync(body).handle((result, error) -> {
+            final Throwable cause = unwrap(error);
+            if (cause instanceof RequestBodySizeExceededException && entities > 1) {
+                this.ceiling.onRejected(body.length);
+                this.onRejected(entities);
+                final JSONObject first = new JSONObject();
+                final JSONObject second = new JSONObject();
+                int count = 0;
+                for (final String key : data.keySet()) {
+                    if (AUTO_CREATE.equals(key)) {
+                        first.put(key, data.get(key));
+                        second.put(key, data.get(key));
+                    } else {
+                        (count++ < entities / 2 ? first : second).put(key, data.get(key));
+                    }
+                }
+                return CompletableFuture.allOf(this.insert(first, entities / 2, true),
+                        this.insert(second, entities - entities / 2, true));
+            }
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            if (cause == null) {
+                this.ceiling.onAccepted(body.length);
+                if (half) {
+                    this.onHalfAccepted(entities);
+                }
+                done.complete(null);
+            } else {
+                done.completeExceptionally(cause);
+            }
+            return done;
+        }).thenCompose(parts -> parts);
+    }
+
+    private static Throwable unwrap(final Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    private void onRejected(final int entities) {
+        this.lock.lock();
+        try {
+            this.rejectedEntities = Math.min(this.rejectedEntities, entities);
+            if (this.acceptedEntities >= this.rejectedEntities) {
+                // the limit went down since, forget what was accepted before
+                this.acceptedEntities = 0;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void onHalfAccepted(final int entities) {
+        this.lock.lock();
+        try {
+            if (entities < this.rejectedEntities && entities > this.acceptedEntities) {
+                this.acceptedEntities = entities;
+                this.batchLimit = entities;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void onBatchDone(final Batch batch, final Throwable error) {
+        final List<Batch> ready = new ArrayList<>();
+        final Subscription subscription;
+        final boolean cancel;
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            subscription = this.subscription;
+            if (error == null) {
+                this.inserted.addAndGet(batch.entities);
+            }
+            cancel = error != null && this.failure == null && !this.upstreamDone;
+            if (error != null && this.failure == null) {
+                this.failure = error;
+                this.pending.clear();
+            }
+            if (this.failure == null) {
+                this.schedule(ready);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (cancel) {
+            subscription.cancel();
+        } else if (error == null && batch.records > 0) {
+            subscription.request(batch.records);
+        }
+        this.send(ready);
+        this.tryComplete();
+    }
+
+    private void tryComplete() {
+        final Throwable failure;
+        this.lock.lock();
+        try {
+            if (!this.upstreamDone && this.failure == null || this.inFlight > 0 ||
+                    !this.pending.isEmpty()) {
+                return;
+            }
+            failure = this.failure;
+        } finally {
+            this.lock.unlock();
+        }
+        if (failure == null) {
+            this.completion.complete(null);
+        } else {
+            this.completion.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * An insert request being built
+     */
+    private static final class Batch {
+        private final JSONObject data = new JSONObject();
+
+        /**
+         * Entities copied from their record when first merged, the others belong to the caller
+         */
+        private final Set<String> copied = new HashSet<>();
+
+        private int entities;
+
+        /**
+         * Estimated size in bytes of the insert body
+         */
+        private long bytes = 2;
+
+        /**
+         * Number of records completed by this batch, requested again from upstream once the
+         * batch is inserted
+         */
+        private int records;
+
+        /**
+         * Merge an update into an entity of the batch
+         *
+         * @return false if the update is for another dimension and can't be merged
+         */
+        private boolean merge(final String entityId, final JSONObject update) {
+            final JSONObject entity = this.data.getJSONObject(entityId);
+            if (!EntityMerger.canMerge(EntityMerger.dimension(entity),
+                    EntityMerger.dimension(update))) {
+                return false;
+            }
+            if (this.copied.add(entityId)) {
+                this.data.put(entityId, new JSONObject(entity.toString()));
+            }
+            EntityMerger.merge(this.data.getJSONObject(entityId),
+                    new JSONObject(update.toString()));
+            return true;
+        }
+    }
+
+    public static class Builder {
+
+        private final SlicingDice client;
+
+        private int batchSize = 1000;
+
+        private int maxInFlight = 4;
+
+        private boolean coalesce;
+
+        private Builder(final SlicingDice client) {
+            this.client = client;
+        }
+
+        /**
+         * @param batchSize Max number of entities in an insert request, and of records merged
+         *                  into one when coalescing
+         */
+        public Builder batchSize(final int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight Max number of insert requests in flight
+         */
+        public Builder maxInFlight(final int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param coalesce Merge the updates of an entity already in the current batch instead
+         *                 of sending the batch, appending event column values into arrays
+         */
+        public Builder coalesce(final boolean coalesce) {
+            this.coalesce = coalesce;
+            return this;
+        }
+
+        public InsertSubscriber build() {
+            return new InsertSubscriber(this);
+        }
+    }
+}
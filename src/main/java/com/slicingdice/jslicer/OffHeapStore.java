@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Off-heap tier of a {@link QueryCache}: values are written one after the other in a single
+ * direct buffer used as a ring, so the oldest values are overwritten when it is full and no
+ * memory is allocated per value. Not thread-safe, the cache calls it holding its lock.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+final class OffHeapStore {
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    private final HashMap<String, Slot> index = new HashMap<>();
+
+    /**
+     * Slots in write order, used to drop the index entries of overwritten values
+     */
+    private final ArrayDeque<Slot> written = new ArrayDeque<>();
+
+    /**
+     * Absolute write position, the value at position p is in the buffer at p % capacity and
+     * is overwritten once head goes past p + capacity
+     */
+    private long head;
+
+    OffHeapStore(final int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    void put(final String key, final byte[] value, final long expiresAt) {
+        if (value.length > this.capacity) {
+            return;
+        }
+        final int offset = (int) (this.head % this.capacity);
+        if (offset + value.length > this.capacity) {
+            // values are not split, skip the end of the buffer
+            this.head += this.capacity - offset;
+        }
+        final Slot slot = new Slot(key, this.head, value.length, expiresAt);
+        final ByteBuffer target = this.buffer.duplicate();
+        target.position((int) (this.head % this.capacity));
+        target.put(value);
+        this.head += value.length;
+
+        this.index.put(key, slot);
+        this.written.addLast(slot);
+        while (!this.written.isEmpty() && !this.isLive(this.written.peekFirst())) {
+            final Slot overwritten = this.written.pollFirst();
+            if (this.index.get(overwritten.key) == overwritten) {
+                this.index.remove(overwritten.key);
+            }
+        }
+    }
+
+    /**
+     * @return the value, null if it is absent, overwritten or expired
+     */
+    byte[] get(final String key, final long now) {
+        final Slot slot = this.index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (!this.isLive(slot) || now - slot.expiresAt >= 0) {
+            this.index.remove(key);
+            return null;
+        }
+        final byte[] value = new byte[slot.length];
+        final ByteBuffer source = this.buffer.duplicate();
+        source.position((int) (slot.position % this.capacity));
+        source.get(value);
+        return value;
+    }
+
+    void remove(final String key) {
+        this.index.remove(key);
+    }
+
+    void clear() {
+        this.index.clear();
+        this.written.clear();
+    }
+
+    int size() {
+        return this.index.size();
+    }
+
+    private boolean isLive(final Slot slot) {
+        return slot.position >= this.head - this.capacity;
+    }
+
+    private static final class Slot {
+        private final String key;
+
+        private final long position;
+
+        private final int length;
+
+        private final long expiresAt;
+
+        private Slot(final String key, final long position, final int length,
+                     final long expiresAt) {
+            this.key = key;
+            this.position = position;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.utils.CanonicalJson;
+import com.slicingdice.jslicer.utils.EndpointClass;
+import com.slicingdice.jslicer.utils.SqlStatements;
+import com.slicingdice.jslicer.utils.URLResources;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Cache of query results used by the async and blocking APIs of a {@link SlicingDice} client,
+ * see {@link SlicingDice#setQueryCache(QueryCache)}. Results are keyed by endpoint and by the
+ * canonical form of the query: JSON queries with sorted keys and SQL queries with their
+ * whitespace collapsed outside of quoted literals, so equivalent queries share an entry.
+ *
+ * Each endpoint has its own time to live, endpoints without one are not cached. Entries are
+ * evicted in least recently used order once the estimated size of the cache reaches maxBytes,
+ * and moved to the optional off-heap tier, a ring buffer of offHeapBytes bytes outside of the
+ * Java heap, where they stay until overwritten or expired.
+ *
+ * Keys don't identify the database queried, so a cache serves a single client: setting it on
+ * a second client, such as another shard of a {@link ShardedSlicingDice}, fails until the
+ * first client stops using it. Build one cache per client instead.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class QueryCache {
+
+    /**
+     * Estimated heap bytes used by an entry besides its key and value characters
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<URLResources, Long> ttls;
+
+    private final long maxBytes;
+
+    private final OffHeapStore offHeap;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long offHeapHits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * The client using the cache, null while unused
+     */
+    private SlicingDice client;
+
+    private QueryCache(final Builder builder) {
+        this.ttls = new EnumMap<>(builder.ttls);
+        this.maxBytes = builder.maxBytes;
+        this.offHeap = builder.offHeapBytes > 0 ? new OffHeapStore(builder.offHeapBytes) : null;
+    }
+
+    /**
+     * @return a builder caching the count, aggregation, top values and SQL queries for 60
+     * seconds
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param endpoint The queried endpoint
+     * @param query    A JSONObject, a JSONArray, a SQL string or null for queries without
+     *                 parameters
+     * @return the cache key of the query
+     */
+    public static String key(final URLResources endpoint, final Object query) {
+        final String canonical;
+        if (query instanceof JSONObject || query instanceof JSONArray) {
+            canonical = CanonicalJson.toString(query);
+        } else if (query instanceof String && endpoint == URLResources.QUERY_SQL) {
+            canonical = normalizeSql((String) query);
+        } else {
+            canonical = query == null ? "" : query.toString();
+        }
+        return endpoint.name() + ' ' + canonical;
+    }
+
+    /**
+     * @return true if the results of the query are cached, SQL queries are only cached when
+     * they are SELECT statements
+     */
+    public boolean isCached(final URLResources endpoint, final Object query) {
+        return this.ttls.containsKey(endpoint) && isRead(endpoint, query);
+    }
+
+    /**
+     * @return false for the queries of a read endpoint changing data, SQL statements other than
+     * SELECT
+     */
+    static boolean isRead(final URLResources endpoint, final Object query) {
+        if (endpoint != URLResources.QUERY_SQL) {
+            return true;
+        }
+        return query instanceof String && SqlStatements.isRead((String) query);
+    }
+
+    /**
+     * Reserve the cache for a client
+     *
+     * @throws IllegalArgumentException if another client uses the cache
+     */
+    void bind(final SlicingDice client) {
+        this.lock.lock();
+        try {
+            if (this.client != null && this.client != client) {
+                throw new IllegalArgumentException("The query cache is already used by " +
+                        "another client, build a cache per client");
+            }
+            this.client = client;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Release the cache if the client uses it, its entries are dropped as they may belong to
+     * the client's database
+     */
+    void unbind(final SlicingDice client) {
+        this.lock.lock();
+        try {
+            if (this.client == client) {
+                this.client = null;
+                this.entries.clear();
+                this.bytes = 0;
+                if (this.offHeap != null) {
+                    this.offHeap.clear();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the cached result, null if there is none
+     */
+    public String get(final String key) {
+        final long now = System.nanoTime();
+        this.lock.lock();
+        try {
+            final Entry entry = this.entries.get(key);
+            if (entry != null) {
+                if (now - entry.expiresAt < 0) {
+                    this.hits++;
+                    return entry.value;
+                }
+                this.remove(key);
+            }
+            if (this.offHeap != null) {
+                final byte[] stored = this.offHeap.get(key, now);
+                if (stored != null) {
+                    this.offHeapHits++;
+                    return new String(stored, StandardCharsets.UTF_8);
+                }
+            }
+            this.misses++;
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Cache a result with the time to live of its endpoint
+     */
+    public void put(final URLResources endpoint, final String key, final String value) {
+        final Long ttl = this.ttls.get(endpoint);
+        if (ttl == null) {
+            return;
+        }
+        final Entry entry = new Entry(value, System.nanoTime() + ttl,
+                ENTRY_OVERHEAD + 2L * (key.length() + value.length()));
+        if (entry.size > this.maxBytes) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.remove(key);
+            this.entries.put(key, entry);
+            this.bytes += entry.size;
+            final Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+            while (this.bytes > this.maxBytes && eldest.hasNext()) {
+                final Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                this.bytes -= evicted.getValue().size;
+                this.evictions++;
+                if (this.offHeap != null) {
+                    this.offHeap.put(evicted.getKey(),
+                            evicted.getValue().value.getBytes(StandardCharsets.UTF_8),
+                            evicted.getValue().expiresAt);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the cached results of an endpoint, for example after inserting data it counts
+     */
+    public void invalidate(final URLResources endpoint) {
+        final String prefix = endpoint.name() + ' ';
+        this.lock.lock();
+        try {
+            final Iterator<Map.Entry<String, Entry>> iterator =
+                    this.entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    iterator.remove();
+                    this.bytes -= entry.getValue().size;
+                }
+            }
+            if (this.offHeap != null) {
+                // the ring is not indexed by endpoint
+                this.offHeap.clear();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        this.lock.lock();
+        try {
+            this.entries.clear();
+            this.bytes = 0;
+            if (this.offHeap != null) {
+                this.offHeap.clear();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of results served from the heap
+     */
+    public long getHits() {
+        this.lock.lock();
+        try {
+            return this.hits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of results served from the off-heap tier
+     */
+    public long getOffHeapHits() {
+        this.lock.lock();
+        try {
+            return this.offHeapHits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        this.lock.lock();
+        try {
+            return this.misses;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries evicted from the heap because the cache was full
+     */
+    public long getEvictions() {
+        this.lock.lock();
+        try {
+            return this.evictions;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the fraction of lookups served from the cache
+     */
+    public double getHitRate() {
+        this.lock.lock();
+        try {
+            final long lookups = this.hits + this.offHeapHits + this.misses;
+            return lookups == 0 ? 0 : (double) (this.hits + this.offHeapHits) / lookups;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries on the heap
+     */
+    public int getSize() {
+        this.lock.lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the estimated heap bytes used by the entries
+     */
+    public long getBytes() {
+        this.lock.lock();
+        try {
+            return this.bytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove an entry from both tiers, must be called holding the lock
+     */
+    private void remove(final String key) {
+        final Entry removed = this.entries.remove(key);
+        if (removed != null) {
+            this.bytes -= removed.size;
+        }
+        if (this.offHeap != null) {
+            this.offHeap.remove(key);
+        }
+    }
+
+    /**
+     * Collapse the whitespace of a SQL query outside of quoted literals and identifiers
+     */
+    static String normalizeSql(final String sql) {
+        final StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static final class Entry {
+        private final String value;
+
+        private final long expiresAt;
+
+        private final long size;
+
+        private Entry(final String value, final long expiresAt, final long size) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+    }
+
+    public static class Builder {
+
+        private static final long DEFAULT_TTL = 60000;
+
+        private final Map<URLResources, Long> ttls = new EnumMap<>(URLResources.class);
+
+        private long maxBytes = 64L * 1024 * 1024;
+
+        private int offHeapBytes;
+
+        private Builder() {
+            for (final URLResources endpoint : new URLResources[]{
+                    URLResources.QUERY_COUNT_ENTITY, URLResources.QUERY_COUNT_ENTITY_TOTAL,
+                    URLResources.QUERY_COUNT_EVENT, URLResources.QUERY_AGGREGATION,
+                    URLResources.QUERY_TOP_VALUES, URLResources.QUERY_SQL}) {
+                this.ttls.put(endpoint, TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL));
+            }
+        }
+
+        /**
+         * @param endpoint A read endpoint
+         * @param ttlMs    Time in milliseconds its results are cached, 0 to not cache it
+         */
+        public Builder ttl(final URLResources endpoint, final long ttlMs) {
+            if (endpoint.endpointClass == EndpointClass.INSERT ||
+                    endpoint.endpointClass == EndpointClass.MUTATION) {
+                throw new IllegalArgumentException("only read endpoints can be cached");
+            }
+            if (ttlMs <= 0) {
+                this.ttls.remove(endpoint);
+            } else {
+                this.ttls.put(endpoint, TimeUnit.MILLISECONDS.toNanos(ttlMs));
+            }
+            return this;
+        }
+
+        /**
+         * @param maxBytes Max estimated heap bytes of the cached results
+         */
+        public Builder maxBytes(final long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param offHeapBytes Size of the off-heap tier receiving the entries evicted from the
+         *                     heap, 0 to disable it
+         */
+        public Builder offHeapBytes(final int offHeapBytes) {
+            if (offHeapBytes < 0) {
+                throw new IllegalArgumentException("offHeapBytes must not be negative");
+            }
+            this.offHeapBytes = offHeapBytes;
+            return this;
+        }
+
+        public QueryCache build() {
+            return new QueryCache(this);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.exceptions.client.InvalidColumnException;
+import com.slicingdice.jslicer.exceptions.client.WrongTypeException;
+import com.slicingdice.jslicer.utils.validators.ColumnValidator;
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Local copy of the database columns, loaded with getColumns and refreshed in the background,
+ * used to validate inserts before they are sent. Values are coerced in place to the column
+ * type when they can be converted without loss, such as numbers sent as strings, and an
+ * insert with an unknown column or a value that can't be converted is rejected immediately.
+ * Values of column types missing from {@link ColumnValidator#COLUMN_TYPES} are left as they
+ * are.
+ *
+ * Until the first refresh completes nothing is known about the columns and inserts are not
+ * validated, call {@code refresh().join()} at startup to validate from the first insert.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class SchemaCache implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SchemaCache.class.getCanonicalName());
+
+    private static final String AUTO_CREATE = "auto-create";
+
+    private static final String DIMENSION = "dimension";
+
+    private static final String EVENT_SUFFIX = "-event";
+
+    private final SlicingDice client;
+
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Column types by api-name, replaced on every refresh, null until the first one
+     */
+    private volatile Map<String, String> columns;
+
+    private SchemaCache(final Builder builder) {
+        this.client = builder.client;
+        if (builder.refreshIntervalMs > 0) {
+            this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "slicingdice-schema-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.timer.scheduleWithFixedDelay(this::refresh, 0, builder.refreshIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * @param client The client used to load and create the columns
+     */
+    public static Builder builder(final SlicingDice client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Load the columns again
+     *
+     * @return a future completed once the columns are loaded
+     */
+    public CompletableFuture<Void> refresh() {
+        return this.client.getColumnsAsync().handle((result, error) -> {
+            if (error != null) {
+                logger.log(Level.WARNING, "SlicingDice: could not refresh the columns.", error);
+                throw error instanceof RuntimeException ? (RuntimeException) error :
+                        new IllegalStateException(error);
+            }
+            final Map<String, String> loaded = new HashMap<>();
+            final JSONArray active = result.optJSONArray("active");
+            if (active != null) {
+                for (int i = 0; i < active.length(); i++) {
+                    final JSONObject column = active.optJSONObject(i);
+                    if (column != null && column.has("api-name")) {
+                        loaded.put(column.getString("api-name"), column.optString("type"));
+                    }
+                }
+            }
+            this.columns = Collections.unmodifiableMap(loaded);
+            return null;
+        });
+    }
+
+    public boolean isLoaded() {
+        return this.columns != null;
+    }
+
+    /**
+     * @return the type of a column, null if the column is unknown
+     */
+    public String getColumnType(final String apiName) {
+        final Map<String, String> current = this.columns;
+        return current == null ? null : current.get(apiName);
+    }
+
+    /**
+     * @return the loaded columns, their types by api-name
+     */
+    public Map<String, String> getColumns() {
+        final Map<String, String> current = this.columns;
+        return current == null ? Collections.<String, String>emptyMap() : current;
+    }
+
+    /**
+     * Create the columns missing from the database in a single request
+     *
+     * @param definitions Columns in the Slicing Dice column format, the ones whose api-name is
+     *                    already known are skipped
+     * @return a future completed once the missing columns are created and the cache refreshed
+     */
+    public CompletableFuture<Void> ensureColumns(final JSONArray definitions) {
+        final JSONArray missing = new JSONArray();
+        for (int i = 0; i < definitions.length(); i++) {
+            final JSONObject definition = definitions.getJSONObject(i);
+            if (this.getColumnType(definition.optString("api-name",
+                    definition.optString("name"))) == null) {
+                missing.put(definition);
+            }
+        }
+        if (missing.length() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        new ColumnValidator(missing).validator();
+        return this.client.createColumnAsync(missing).thenCompose(result -> this.refresh());
+    }
+
+    /**
+     * Validate the entities of an insert against the columns, coercing values in place
+     *
+     * @param data The insert, in the Slicing Dice insert format
+     * @return the insert
+     * @throws InvalidColumnException if a column is unknown and the insert doesn't
+     *                                auto-create columns
+     * @throws WrongTypeException     if a value doesn't match its column type
+     */
+    public JSONObject validate(final JSONObject data) {
+        final Map<String, String> current = this.columns;
+        if (current == null) {
+            return data;
+        }
+        final boolean autoCreate = autoCreatesColumns(data.optJSONArray(AUTO_CREATE));
+        for (final String entityId : data.keySet()) {
+            if (!AUTO_CREATE.equals(entityId)) {
+                validate(current, entityId, data.getJSONObject(entityId), autoCreate);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Validate the attributes of an entity against the columns, coercing values in place
+     *
+     * @param entityId   The entity id, used in error messages
+     * @param attributes The column values of the entity
+     * @param autoCreate If unknown columns are created by the insert
+     * @throws InvalidColumnException if a column is unknown and autoCreate is false
+     * @throws WrongTypeException     if a value doesn't match its column type
+     */
+    public void validate(final String entityId, final JSONObject attributes,
+                         final boolean autoCreate) {
+        final Map<String, String> current = this.columns;
+        if (current != null) {
+            validate(current, entityId, attributes, autoCreate);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+        }
+    }
+
+    static boolean autoCreatesColumns(final JSONArray autoCreate) {
+        if (autoCreate != null) {
+            for (int i = 0; i < autoCreate.length(); i++) {
+                if ("column".equals(autoCreate.opt(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void validate(final Map<String, String> columns, final String entityId,
+                                 final JSONObject attributes, final boolean autoCreate) {
+        for (final String column : attributes.keySet()) {
+            if (DIMENSION.equals(column)) {
+                continue;
+            }
+            final String type = columns.get(column);
+            if (type == null) {
+                if (autoCreate) {
+                    continue;
+                }
+                throw new InvalidColumnException("SlicingDice: unknown column '" + column +
+                        "' for entity '" + entityId + "'.");
+            }
+            if (!ColumnValidator.COLUMN_TYPES.contains(type)) {
+                // a type added to the API after this client, its values are sent as they are
+                continue;
+            }
+            final Object value = attributes.get(column);
+            final Object coerced = type.endsWith(EVENT_SUFFIX) ?
+                    coerceEvents(type.substring(0, type.length() - EVENT_SUFFIX.length()),
+                            column, value) :
+                    coerceValues(type, column, value);
+            if (coerced != value) {
+                attributes.put(column, coerced);
+            }
+        }
+    }
+
+    /**
+     * @return the value or array of values converted to the column type
+     */
+    private static Object coerceValues(final String type, final String column,
+                                       final Object value) {
+        if (value instanceof JSONArray) {
+            final JSONArray values = (JSONArray) value;
+            for (int i = 0; i < values.length(); i++) {
+                final Object element = values.get(i);
+                final Object coerced = coerce(type, column, element);
+                if (coerced != element) {
+                    values.put(i, coerced);
+                }
+            }
+            return values;
+        }
+        return coerce(type, column, value);
+    }
+
+    /**
+     * @return the event or array of events with their value converted to the event type
+     */
+    private static Object coerceEvents(final String type, final String column,
+                                       final Object value) {
+        if (value instanceof JSONArray) {
+            final JSONArray events = (JSONArray) value;
+            for (int i = 0; i < events.length(); i++) {
+                coerceEvent(type, column, events.get(i));
+            }
+        } else {
+            coerceEvent(type, column, value);
+        }
+        return value;
+    }
+
+    private static void coerceEvent(final String type, final String column, final Object event) {
+        if (!(event instanceof JSONObject) || !((JSONObject) event).has("value") ||
+                !((JSONObject) event).has("date")) {
+            throw new WrongTypeException("SlicingDice: column '" + column + "' expects " +
+                    "events with a value and a date.");
+        }
+        final JSONObject values = (JSONObject) event;
+        final Object value = values.get("value");
+        final Object coerced = coerce(type, column, value);
+        if (coerced != value) {
+            values.put("value", coerced);
+        }
+    }
+
+    private static Object coerce(final String type, final String column, final Object value) {
+        switch (type) {
+            case "integer":
+                if (value instanceof Integer || value instanceof Long) {
+                    return value;
+                }
+                try {
+                    return new BigDecimal(value.toString().trim()).longValueExact();
+                } catch (final ArithmeticException | NumberFormatException e) {
+                    throw wrongType(column, type, value);
+                }
+            case "decimal":
+                if (value instanceof Number) {
+                    return value;
+                }
+                try {
+                    return new BigDecimal(value.toString().trim());
+                } catch (final NumberFormatException e) {
+                    throw wrongType(column, type, value);
+                }
+            case "boolean":
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                if ("true".equalsIgnoreCase(value.toString()) ||
+                        "false".equalsIgnoreCase(value.toString())) {
+                    return Boolean.valueOf(value.toString());
+                }
+                throw wrongType(column, type, value);
+            case "date":
+            case "datetime":
+                if (value instanceof String) {
+                    return value;
+                }
+                throw wrongType(column, type, value);
+            case "string":
+            case "enumerated":
+            case "unique-id":
+                // these hold any scalar as text
+                if (value instanceof String) {
+                    return value;
+                }
+                if (value instanceof JSONObject || value instanceof JSONArray ||
+                        value == JSONObject.NULL) {
+                    throw wrongType(column, type, value);
+                }
+                return value.toString();
+            default:
+                return value;
+        }
+    }
+
+    private static WrongTypeException wrongType(final String column, final String type,
+                                                final Object value) {
+        return new WrongTypeException("SlicingDice: column '" + column + "' expects " + type +
+                " values, got '" + value + "'.");
+    }
+
+    public static class Builder {
+
+        private final SlicingDice client;
+
+        private long refreshIntervalMs = 60000;
+
+        private Builder(final SlicingDice client) {
+            this.client = client;
+        }
+
+        /**
+         * @param refreshIntervalMs Time in milliseconds between two background refreshes, the
+         *                          first one starts immediately, 0 to only refresh on demand
+         */
+        public Builder refreshIntervalMs(final long refreshIntervalMs) {
+            if (refreshIntervalMs < 0) {
+                throw new IllegalArgumentException("refreshIntervalMs must not be negative");
+            }
+            this.refreshIntervalMs = refreshIntervalMs;
+            return this;
+        }
+
+        public SchemaCache build() {
+            return new SchemaCache(this);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+/**
+ * Insert progress of a shard of a {@link ShardedSlicingDice}
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class ShardStats {
+
+    private final String name;
+
+    private final long addedEntities;
+
+    private final long insertedEntities;
+
+    private final long failedEntities;
+
+    private final int pendingEntities;
+
+    ShardStats(final String name, final long addedEntities, final long insertedEntities,
+               final long failedEntities, final int pendingEntities) {
+        this.name = name;
+        this.addedEntities = addedEntities;
+        this.insertedEntities = insertedEntities;
+        this.failedEntities = failedEntities;
+        this.pendingEntities = pendingEntities;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getAddedEntities() {
+        return this.addedEntities;
+    }
+
+    public long getInsertedEntities() {
+        return this.insertedEntities;
+    }
+
+    public long getFailedEntities() {
+        return this.failedEntities;
+    }
+
+    /**
+     * @return the number of entities waiting in the shard's batches, not sent yet
+     */
+    public int getPendingEntities() {
+        return this.pendingEntities;
+    }
+
+    /**
+     * @return the number of entities added and not inserted or failed yet, including the
+     * entities of the insert requests in flight
+     */
+    public long getLag() {
+        return this.addedEntities - this.insertedEntities - this.failedEntities;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardStats{name=" + this.name + ", lag=" + this.getLag() + ", pendingEntities=" +
+                this.pendingEntities + ", insertedEntities=" + this.insertedEntities +
+                ", failedEntities=" + this.failedEntities + "}";
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import org.json.JSONObject;
+
+/**
+ * Routes inserts across several Slicing Dice databases, each one with its own client and keys.
+ * Entities are assigned to a shard by consistent hashing of their id over a ring holding
+ * virtualNodes points per shard, so an entity always goes to the same shard and adding a shard
+ * only moves the entities of the ring arcs it takes over.
+ *
+ * Each shard inserts through its own {@link BulkInserter}, so batching, parallel flushes and
+ * the concurrency and rate limits of the shard's client are independent from the other
+ * shards. The lag of every shard is available with {@link #getShardStats()}.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class ShardedSlicingDice implements Closeable {
+
+    private static final String AUTO_CREATE = "auto-create";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+
+    private final TreeMap<Long, Shard> ring = new TreeMap<>();
+
+    private ShardedSlicingDice(final Builder builder) {
+        for (final Map.Entry<String, SlicingDice> entry : builder.clients.entrySet()) {
+            final Shard shard = new Shard(entry.getKey(), entry.getValue(), builder);
+            this.shards.put(entry.getKey(), shard);
+            for (int node = 0; node < builder.virtualNodes; node++) {
+                this.ring.put(hash(entry.getKey() + "#" + node), shard);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Add every entity of a JSONObject in the Slicing Dice insert format to its shard, an
+     * auto-create key is ignored, set it on the shards' BulkInserter instead
+     *
+     * @throws InterruptedException if interrupted while waiting for room in a shard's queue
+     */
+    public void add(final JSONObject data) throws InterruptedException {
+        for (final String entityId : data.keySet()) {
+            if (!AUTO_CREATE.equals(entityId)) {
+                this.add(entityId, data.getJSONObject(entityId));
+            }
+        }
+    }
+
+    /**
+     * Add an entity to the batch of its shard
+     *
+     * @throws InterruptedException if interrupted while waiting for room in the shard's queue
+     */
+    public void add(final String entityId, final JSONObject attributes)
+            throws InterruptedException {
+        final Shard shard = this.shard(entityId);
+        shard.added.incrementAndGet();
+        try {
+            shard.inserter.add(entityId, attributes);
+        } catch (final InterruptedException | RuntimeException e) {
+            shard.added.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the name of the shard an entity is inserted in
+     */
+    public String getShardName(final String entityId) {
+        return this.shard(entityId).name;
+    }
+
+    /**
+     * @return the client of the shard an entity is inserted in, to query its database
+     */
+    public SlicingDice getClient(final String entityId) {
+        return this.shard(entityId).client;
+    }
+
+    /**
+     * @return the clients of the shards by name
+     */
+    public Map<String, SlicingDice> getClients() {
+        final Map<String, SlicingDice> clients = new LinkedHashMap<>();
+        for (final Shard shard : this.shards.values()) {
+            clients.put(shard.name, shard.client);
+        }
+        return Collections.unmodifiableMap(clients);
+    }
+
+    /**
+     * @return the insert progress of every shard
+     */
+    public List<ShardStats> getShardStats() {
+        final List<ShardStats> stats = new ArrayList<>(this.shards.size());
+        for (final Shard shard : this.shards.values()) {
+            stats.add(new ShardStats(shard.name, shard.added.get(), shard.inserted.get(),
+                    shard.failed.get(), shard.inserter.getPendingEntities()));
+        }
+        return stats;
+    }
+
+    /**
+     * Send the current batch of every shard
+     *
+     * @return a future completed once every batch added so far was inserted or failed
+     */
+    public CompletableFuture<Void> flush() {
+        final CompletableFuture<?>[] flushes = new CompletableFuture<?>[this.shards.size()];
+        int i = 0;
+        for (final Shard shard : this.shards.values()) {
+            flushes[i++] = shard.inserter.flush();
+        }
+        return CompletableFuture.allOf(flushes);
+    }
+
+    /**
+     * Close the BulkInserter of every shard, waiting for their batches. The shards' clients
+     * are not closed.
+     */
+    @Override
+    public void close() {
+        for (final Shard shard : this.shards.values()) {
+            shard.inserter.close();
+        }
+    }
+
+    private Shard shard(final String entityId) {
+        final Map.Entry<Long, Shard> point = this.ring.ceilingEntry(hash(entityId));
+        return point != null ? point.getValue() : this.ring.firstEntry().getValue();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the UTF-8 bytes followed by a final mix spreading the bits of
+     * similar ids over the ring
+     */
+    static long hash(final String value) {
+        long hash = FNV_OFFSET;
+        for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Shard {
+        private final String name;
+
+        private final SlicingDice client;
+
+        private final BulkInserter inserter;
+
+        private final AtomicLong added = new AtomicLong();
+
+        private final AtomicLong inserted = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private Shard(final String name, final SlicingDice client, final Builder builder) {
+            this.name = name;
+            this.client = client;
+            final BatchListener listener = builder.listener;
+            this.inserter = builder.inserter.apply(BulkInserter.builder(client))
+                    .listener(outcome -> {
+                        if (outcome.isSuccess()) {
+                            this.inserted.addAndGet(outcome.getEntities());
+                        } else {
+                            this.failed.addAndGet(outcome.getEntities());
+                        }
+                        listener.onBatch(outcome);
+                    })
+                    .build();
+        }
+    }
+
+    public static class Builder {
+
+        private final Map<String, SlicingDice> clients = new LinkedHashMap<>();
+
+        private int virtualNodes = 128;
+
+        private UnaryOperator<BulkInserter.Builder> inserter = UnaryOperator.identity();
+
+        private BatchListener listener = outcome -> { };
+
+        private Builder() {
+        }
+
+        /**
+         * @param name   The shard name, its position on the ring depends only on the name
+         * @param client The client of the shard's database
+         */
+        public Builder shard(final String name, final SlicingDice client) {
+            if (this.clients.containsKey(name)) {
+                throw new IllegalArgumentException("shard " + name + " is already defined");
+            }
+            this.clients.put(name, client);
+            return this;
+        }
+
+        /**
+         * @param virtualNodes Number of points of each shard on the ring, more points spread
+         *                     the entities more evenly
+         */
+        public Builder virtualNodes(final int virtualNodes) {
+            if (virtualNodes < 1) {
+                throw new IllegalArgumentException("virtualNodes must be at least 1");
+            }
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * @param inserter Configures the BulkInserter of each shard, its listener is replaced,
+         *                 use {@link #listener(BatchListener)} instead
+         */
+        public Builder bulkInserter(final UnaryOperator<BulkInserter.Builder> inserter) {
+            this.inserter = inserter;
+            return this;
+        }
+
+        /**
+         * @param listener Receives the outcome of every batch of every shard
+         */
+        public Builder listener(final BatchListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener must not be null");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        public ShardedSlicingDice build() {
+            if (this.clients.isEmpty()) {
+                throw new IllegalArgumentException("at least one shard must be defined");
+            }
+            return new ShardedSlicingDice(this);
+        }
+    }
+}
@@ -15,25 +15,39 @@
  */
 package com.slicingdice.jslicer;
 
+import com.slicingdice.jslicer.core.CircuitBreaker;
+import com.slicingdice.jslicer.core.ConcurrencyLimiter;
 import com.slicingdice.jslicer.core.HandlerResponse;
+import com.slicingdice.jslicer.core.HedgePolicy;
+import com.slicingdice.jslicer.core.RateLimiter;
 import com.slicingdice.jslicer.core.Requester;
+import com.slicingdice.jslicer.core.RetryPolicy;
+import com.slicingdice.jslicer.core.TransportConfig;
 import com.slicingdice.jslicer.exceptions.client.InvalidQueryException;
 import com.slicingdice.jslicer.exceptions.client.MaxLimitException;
 import com.slicingdice.jslicer.exceptions.client.SlicingDiceKeyException;
+import com.slicingdice.jslicer.utils.EndpointClass;
 import com.slicingdice.jslicer.utils.URLResources;
 import com.slicingdice.jslicer.utils.validators.ColumnValidator;
 import com.slicingdice.jslicer.utils.validators.QueryCountValidator;
 import com.slicingdice.jslicer.utils.validators.QueryDataExtractionValidator;
 import com.slicingdice.jslicer.utils.validators.TopValuesValidator;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.asynchttpclient.Response;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.reactivestreams.Publisher;
 
 
 /**
@@ -63,6 +77,26 @@ public class SlicingDice {
 
     private int timeout;
 
+    private final Requester requester;
+
+    /**
+     * Insert body size learned by the batch inserters from the bodies the API rejected
+     */
+    private final BodySizeCeiling insertSizeCeiling = new BodySizeCeiling();
+
+    private volatile QueryCache queryCache;
+
+    private volatile boolean coalesceReads;
+
+    /**
+     * Read requests in flight by query key, shared by the identical queries made meanwhile
+     */
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedReads = new AtomicLong();
+
+    private volatile boolean countFanOut;
+
     /**
      * A String list with all types of query supported
      */
@@ -78,33 +112,191 @@ public class SlicingDice {
             System.getenv("SD_API_ADDRESS") : "https://api.slicingdice.com/v1";
 
     public SlicingDice(final String masterKey) {
-        this.masterKey = masterKey;
-        this.timeout = 60;
+        this(masterKey, null, null, null);
     }
 
     public SlicingDice(final String masterKey, final String customKey, final String writeKey,
                        final String readKey) {
-        this.masterKey = masterKey;
-        this.customKey = customKey;
-        this.writeKey = writeKey;
-        this.readKey = readKey;
-        this.timeout = 60;
+        this(masterKey, customKey, writeKey, readKey, 60);
     }
 
     public SlicingDice(final String masterKey, final String customKey, final String writeKey,
                        final String readKey, final int timeout) {
+        this(masterKey, customKey, writeKey, readKey, timeout, TransportConfig.defaults());
+    }
+
+    /**
+     * @param transportConfig The connection pool and IO settings for this client, every client
+     *                        owns its own HTTP client built from this configuration
+     */
+    public SlicingDice(final String masterKey, final String customKey, final String writeKey,
+                       final String readKey, final int timeout,
+                       final TransportConfig transportConfig) {
         this.masterKey = masterKey;
         this.customKey = customKey;
         this.writeKey = writeKey;
         this.readKey = readKey;
         this.timeout = timeout;
+        this.requester = new Requester(transportConfig);
     }
 
     /**
-     * Call this to close executors
+     * Call this to close the HTTP client and executors owned by this client, other SlicingDice
+     * instances are not affected
      */
     public void close() throws IOException {
-        Requester.close();
+        this.requester.close();
+    }
+
+    /**
+     * Set the policy used to retry requests to an endpoint rejected by the API rate limit. All
+     * endpoints retry with {@link RetryPolicy#defaults()} except DELETE and UPDATE, which only
+     * retry if a policy is set.
+     *
+     * @param endpoint    The endpoint using the policy
+     * @param retryPolicy The policy, {@link RetryPolicy#NONE} to disable retries
+     */
+    public void setRetryPolicy(final URLResources endpoint, final RetryPolicy retryPolicy) {
+        this.requester.setRetryPolicy(endpoint, retryPolicy);
+    }
+
+    /**
+     * Pace the requests to a class of endpoints with a client side token bucket, requests are
+     * not paced unless a rate limiter is set.
+     *
+     * @param endpointClass The endpoints sharing the rate limiter
+     * @param rateLimiter   The rate limiter, null to stop pacing these endpoints
+     */
+    public void setRateLimiter(final EndpointClass endpointClass, final RateLimiter rateLimiter) {
+        this.requester.setRateLimiter(endpointClass, rateLimiter);
+    }
+
+    /**
+     * Hedge the requests to a read query endpoint: a duplicate request is sent when no response
+     * arrived after a percentile of the endpoint latency, the first response wins and the other
+     * request is cancelled. Inserts, updates, deletes and management requests are never hedged,
+     * nor are the SQL statements other than SELECT and WITH.
+     *
+     * @param endpoint    A read query endpoint, like QUERY_COUNT_ENTITY or QUERY_SQL
+     * @param hedgePolicy The policy, null to stop hedging the endpoint
+     */
+    public void setHedgePolicy(final URLResources endpoint, final HedgePolicy hedgePolicy) {
+        this.requester.setHedgePolicy(endpoint, hedgePolicy);
+    }
+
+    /**
+     * Hedge the requests to every read query endpoint with the same policy
+     *
+     * @param hedgePolicy The policy, null to stop hedging read queries
+     */
+    public void setHedgePolicy(final HedgePolicy hedgePolicy) {
+        for (final URLResources endpoint : URLResources.values()) {
+            if (endpoint.endpointClass == EndpointClass.QUERY) {
+                this.requester.setHedgePolicy(endpoint, hedgePolicy);
+            }
+        }
+    }
+
+    /**
+     * Guard an endpoint with a circuit breaker, while the breaker is open requests to the
+     * endpoint fail immediately with a CircuitOpenException instead of waiting for the timeout.
+     *
+     * @param endpoint       The endpoint guarded by the breaker
+     * @param circuitBreaker The breaker, null to remove the endpoint's breaker
+     */
+    public void setCircuitBreaker(final URLResources endpoint,
+                                  final CircuitBreaker circuitBreaker) {
+        this.requester.setCircuitBreaker(endpoint, circuitBreaker);
+    }
+
+    /**
+     * Guard every endpoint with its own circuit breaker
+     *
+     * @param circuitBreaker The settings of the breakers, a breaker is built for each endpoint
+     */
+    public void setCircuitBreakers(final CircuitBreaker.Builder circuitBreaker) {
+        for (final URLResources endpoint : URLResources.values()) {
+            this.requester.setCircuitBreaker(endpoint, circuitBreaker.build());
+        }
+    }
+
+    /**
+     * Limit the number of requests in flight with an adaptive limit, requests over the limit
+     * wait in a queue or are rejected with a ConcurrencyLimitException.
+     *
+     * @param concurrencyLimiter The limiter, null to stop limiting requests
+     */
+    public void setConcurrencyLimiter(final ConcurrencyLimiter concurrencyLimiter) {
+        this.requester.setConcurrencyLimiter(concurrencyLimiter);
+    }
+
+    /**
+     * @return the max insert body size in bytes learned from the batches rejected by the API
+     * for their size, Long.MAX_VALUE until a batch is rejected
+     */
+    public long getInsertSizeCeiling() {
+        return this.insertSizeCeiling.get();
+    }
+
+    BodySizeCeiling insertSizeCeiling() {
+        return this.insertSizeCeiling;
+    }
+
+    /**
+     * Serve repeated queries of the async methods, and of the BlockingSlicingDice wrapping this
+     * client, from a cache. The methods returning a Future of Response and the methods taking
+     * a handler always query the API.
+     *
+     * A cache serves a single client, the cache previously set is emptied and can then be set
+     * on another client.
+     *
+     * @param queryCache The cache, null to stop caching query results
+     * @throws IllegalArgumentException if the cache is set on another client
+     */
+    public void setQueryCache(final QueryCache queryCache) {
+        if (queryCache != null) {
+            queryCache.bind(this);
+        }
+        final QueryCache previous = this.queryCache;
+        this.queryCache = queryCache;
+        if (previous != null && previous != queryCache) {
+            previous.unbind(this);
+        }
+    }
+
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    /**
+     * Share one request between the identical read queries and metadata requests made by the
+     * async methods while it is in flight, disabled by default. SQL statements other than
+     * SELECT are never shared. The shared request is cancelled once every call sharing it was
+     * cancelled, cancelling one of them only detaches it.
+     *
+     * @param coalesceReads true to share requests, false to send a request for every call
+     */
+    public void setCoalesceReads(final boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    /**
+     * @return the number of calls answered by a request already in flight
+     */
+    public long getCoalescedReads() {
+        return this.coalescedReads.get();
+    }
+
+    /**
+     * Let countEntityAsync and countEventAsync take arrays of more than 10 queries: the array is
+     * split in requests of 10 queries sent in parallel, under the concurrency limiter when one
+     * is set, and their results are merged in a single response. The other count methods still
+     * raise a MaxLimitException.
+     *
+     * @param countFanOut true to split the count query arrays above the limit of a request
+     */
+    public void setCountFanOut(final boolean countFanOut) {
+        this.countFanOut = countFanOut;
     }
 
     @Deprecated
@@ -157,16 +349,17 @@ public class SlicingDice {
      * @param data An Object to send in request
      * @return a future to deal with the query
      */
-    private Future<Response> makeRequest(final String url, final Object data, final String reqType,
-                                         final int keyLevel) {
+    private CompletableFuture<Response> makeRequest(final URLResources endpoint, final String url,
+                                                    final Object data, final String reqType,
+                                                    final int keyLevel) {
         final String apiKey = this.getKey(keyLevel);
 
         if (reqType.equals(POST)) {
-            return Requester.post(url, data.toString(), apiKey, timeout);
+            return this.requester.post(endpoint, url, data.toString(), apiKey, timeout);
         } else if (reqType.equals(PUT)) {
-            return Requester.put(url, data.toString(), apiKey, timeout);
+            return this.requester.put(endpoint, url, data.toString(), apiKey, timeout);
         } else if (reqType.equals(DELETE)) {
-            return Requester.delete(url, apiKey, timeout);
+            return this.requester.delete(endpoint, url, apiKey, timeout);
         }
 
         return null;
@@ -179,28 +372,171 @@ public class SlicingDice {
      * @param data    An Object to send in request
      * @param handler A handler that will call onError or onSuccess when the request finishes
      */
-    private void makeRequest(final String url, final Object data, final String reqType,
-                             final int keyLevel, final HandlerResponse handler) {
+    private void makeRequest(final URLResources endpoint, final String url, final Object data,
+                             final String reqType, final int keyLevel,
+                             final HandlerResponse handler) {
         final String apiKey = this.getKey(keyLevel);
 
         if (reqType.equals(POST)) {
-            Requester.post(url, data.toString(), apiKey, timeout, handler);
+            this.requester.post(endpoint, url, data.toString(), apiKey, timeout, handler);
         } else if (reqType.equals(PUT)) {
-            Requester.put(url, data.toString(), apiKey, timeout, handler);
+            this.requester.put(endpoint, url, data.toString(), apiKey, timeout, handler);
         } else if (reqType.equals(DELETE)) {
-            Requester.delete(url, apiKey, timeout, handler);
+            this.requester.delete(endpoint, url, apiKey, timeout, handler);
         }
     }
 
-    private Future<Response> makeRequest(final String url, final int keyLevel) {
+    private CompletableFuture<Response> makeRequest(final URLResources endpoint, final String url,
+                                                    final int keyLevel) {
         final String apiKey = this.getKey(keyLevel);
-        return Requester.get(url, apiKey, timeout);
+        return this.requester.get(endpoint, url, apiKey, timeout);
     }
 
-    private void makeRequest(final String url, final int keyLevel,
+    private void makeRequest(final URLResources endpoint, final String url, final int keyLevel,
                              final HandlerResponse handler) {
         final String apiKey = this.getKey(keyLevel);
-        Requester.get(url, apiKey, timeout, handler);
+        this.requester.get(endpoint, url, apiKey, timeout, handler);
+    }
+
+    /**
+     * Make a request and parse its result, errors raised before the request is sent, like an
+     * invalid query or a missing key, complete the future exceptionally instead of being thrown
+     *
+     * @param request Makes the request, the request methods keep the Future of their 2.1.0
+     *                signature but always return a CompletableFuture
+     * @return a future completed with the parsed response
+     */
+    private CompletableFuture<JSONObject> async(
+            final Supplier<? extends Future<Response>> request) {
+        final CompletableFuture<Response> whenExecute;
+        try {
+            whenExecute = (CompletableFuture<Response>) request.get();
+        } catch (final RuntimeException exception) {
+            final CompletableFuture<JSONObject> failed = new CompletableFuture<>();
+            failed.completeExceptionally(exception);
+            return failed;
+        }
+        return this.requester.toJson(whenExecute);
+    }
+
+    /**
+     * Same as {@link #async(Supplier)} for read requests: answered from the query cache when it
+     * holds the result of an equivalent query, and sharing the request of an identical query
+     * already in flight. Every caller receives its own JSONObject.
+     *
+     * @param endpoint The queried endpoint, the key level used by a method is fixed by its
+     *                 endpoint so it is not part of the key
+     * @param query    The query identifying the result, see {@link QueryCache#key}
+     * @param request  Makes the request
+     */
+    private CompletableFuture<JSONObject> readAsync(final URLResources endpoint,
+            final Object query, final Supplier<? extends Future<Response>> request) {
+        final QueryCache cache = this.queryCache;
+        final boolean cached = cache != null && cache.isCached(endpoint, query);
+        final boolean coalesced = this.coalesceReads && QueryCache.isRead(endpoint, query);
+        if (!cached && !coalesced) {
+            return this.async(request);
+        }
+
+        final String key = QueryCache.key(endpoint, query);
+        if (cached) {
+            final String value = cache.get(key);
+            if (value != null) {
+                return CompletableFuture.completedFuture(new JSONObject(value));
+            }
+        }
+        if (!coalesced) {
+            final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+            final CompletableFuture<JSONObject> sent = this.async(request);
+            result.whenComplete((json, error) -> {
+                if (result.isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+            sent.whenComplete((json, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    cache.put(endpoint, key, json.toString());
+                    result.complete(json);
+                }
+            });
+            return result;
+        }
+
+        final Flight created = new Flight();
+        final Flight flight = this.inFlight.compute(key, (k, current) -> {
+            if (current == null) {
+                return created;
+            }
+            current.followers++;
+            current.waiters++;
+            return current;
+        });
+        if (flight != created) {
+            this.coalescedReads.incrementAndGet();
+            final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+            result.whenComplete((json, error) -> {
+                if (result.isCancelled()) {
+                    this.leave(key, flight);
+                }
+            });
+            flight.shared.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(new JSONObject(value));
+                }
+            });
+            return result;
+        }
+
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        flight.request = this.async(request);
+        result.whenComplete((json, error) -> {
+            if (result.isCancelled()) {
+                this.leave(key, flight);
+            }
+        });
+        flight.request.whenComplete((json, error) -> {
+            if (error != null) {
+                this.inFlight.remove(key, flight);
+                flight.shared.completeExceptionally(error);
+                result.completeExceptionally(error);
+                return;
+            }
+            // the result is cached before the flight ends so no caller misses both
+            String value = null;
+            if (cached) {
+                value = json.toString();
+                cache.put(endpoint, key, value);
+            }
+            this.inFlight.remove(key, flight);
+            // no follower can join once the flight is removed
+            if (value == null && flight.followers > 0) {
+                value = json.toString();
+            }
+            flight.shared.complete(value);
+            result.complete(json);
+        });
+        return result;
+    }
+
+    /**
+     * Detach a cancelled call from its flight, the request is cancelled with the last call
+     */
+    private void leave(final String key, final Flight flight) {
+        final boolean[] last = new boolean[1];
+        this.inFlight.computeIfPresent(key, (k, current) -> {
+            if (current != flight || --current.waiters > 0) {
+                return current;
+            }
+            last[0] = true;
+            return null;
+        });
+        if (last[0]) {
+            flight.request.cancel(true);
+        }
     }
 
     /**
@@ -209,11 +545,11 @@ public class SlicingDice {
      * @param data A JSONObject in the Slicing Dice column format
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> wrapperCreateColumn(final Object data, final String url) {
+    private CompletableFuture<Response> wrapperCreateColumn(final Object data, final String url) {
         final ColumnValidator columnValidator = new ColumnValidator(data);
 
         if (columnValidator.validator()) {
-            return this.makeRequest(url, data, POST, 2);
+            return this.makeRequest(URLResources.COLUMN, url, data, POST, 2);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -229,7 +565,7 @@ public class SlicingDice {
         final ColumnValidator columnValidator = new ColumnValidator(data);
 
         if (columnValidator.validator()) {
-            this.makeRequest(url, data, POST, 2, handler);
+            this.makeRequest(URLResources.COLUMN, url, data, POST, 2, handler);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -246,6 +582,17 @@ public class SlicingDice {
         return this.wrapperCreateColumn(data, url);
     }
 
+    /**
+     * Create column in Slicing Dice, will return the SlicingDice response
+     *
+     * @param data A JSONObject in the Slicing Dice column format
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> createColumnAsync(final JSONObject data) {
+        return this.async(() -> this.createColumn(data));
+    }
+
     /**
      * Create column in Slicing Dice, will return the SlicingDice response
      *
@@ -268,6 +615,17 @@ public class SlicingDice {
         return this.wrapperCreateColumn(dataArray, url);
     }
 
+    /**
+     * Create column in Slicing Dice, will return the SlicingDice response
+     *
+     * @param dataArray A JSONArray with many JSONObjects in the Slicing Dice column format
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> createColumnAsync(final JSONArray dataArray) {
+        return this.async(() -> this.createColumn(dataArray));
+    }
+
     /**
      * Create column in Slicing Dice, will return the SlicingDice response
      *
@@ -286,7 +644,17 @@ public class SlicingDice {
      */
     public Future<Response> getColumns() {
         final String url = this.baseURL + URLResources.COLUMN.url;
-        return this.makeRequest(url, 2);
+        return this.makeRequest(URLResources.COLUMN, url, 2);
+    }
+
+    /**
+     * Get all columns, will return all columns(active and inactive).
+     *
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> getColumnsAsync() {
+        return this.readAsync(URLResources.COLUMN, null, () -> this.getColumns());
     }
 
     /**
@@ -296,7 +664,7 @@ public class SlicingDice {
      */
     public void getColumns(final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.COLUMN.url;
-        this.makeRequest(url, 2, handler);
+        this.makeRequest(URLResources.COLUMN, url, 2, handler);
     }
 
     /**
@@ -308,7 +676,19 @@ public class SlicingDice {
      */
     public Future<Response> insert(final JSONObject data) {
         final String url = this.baseURL + URLResources.INSERT.url;
-        return this.makeRequest(url, data, POST, 1);
+        return this.makeRequest(URLResources.INSERT, url, data, POST, 1);
+    }
+
+    /**
+     * Insert data to existing entities or create new entities, if necessary. This method corresponds
+     * to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data A JSON object in the SlicingDice insert format
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> insertAsync(final JSONObject data) {
+        return this.async(() -> this.insert(data));
     }
 
     /**
@@ -320,7 +700,164 @@ public class SlicingDice {
      */
     public void insert(final JSONObject data, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.INSERT.url;
-        this.makeRequest(url, data, POST, 1, handler);
+        this.makeRequest(URLResources.INSERT, url, data, POST, 1, handler);
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data A buffer with the UTF-8 JSON in the SlicingDice insert format, it must not
+     *             be modified until the request finishes
+     * @return a future to get SlicingDice request result
+     */
+    public CompletableFuture<Response> insertRaw(final ByteBuffer data) {
+        final String url = this.baseURL + URLResources.INSERT.url;
+        return this.requester.post(URLResources.INSERT, url, data, this.getKey(1), timeout);
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data A buffer with the UTF-8 JSON in the SlicingDice insert format, it must not
+     *             be modified until the request finishes
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> insertRawAsync(final ByteBuffer data) {
+        return this.async(() -> this.insertRaw(data));
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data The UTF-8 JSON in the SlicingDice insert format
+     * @return a future to get SlicingDice request result
+     */
+    public CompletableFuture<Response> insertRaw(final byte[] data) {
+        return this.insertRaw(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert. Will return the SlicingDice response.
+     *
+     * @param data The UTF-8 JSON in the SlicingDice insert format
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> insertRawAsync(final byte[] data) {
+        return this.async(() -> this.insertRaw(data));
+    }
+
+    /**
+     * Insert an already serialized JSON body, skipping the JSONObject tree. This method
+     * corresponds to a POST request at /insert.
+     *
+     * @param data    A buffer with the UTF-8 JSON in the SlicingDice insert format, it must not
+     *                be modified until the request finishes
+     * @param handler A handler that will call onError or onSuccess when the request finishes
+     */
+    public void insertRaw(final ByteBuffer data, final HandlerResponse handler) {
+        final String url = this.baseURL + URLResources.INSERT.url;
+        this.requester.post(URLResources.INSERT, url, data, this.getKey(1), timeout, handler);
+    }
+
+    /**
+     * Get the url of a query endpoint accepting raw bodies
+     *
+     * @param endpoint A query endpoint
+     * @return the endpoint url
+     */
+    private String rawQueryUrl(final URLResources endpoint) {
+        switch (endpoint) {
+            case QUERY_COUNT_ENTITY:
+            case QUERY_COUNT_ENTITY_TOTAL:
+            case QUERY_COUNT_EVENT:
+            case QUERY_AGGREGATION:
+            case QUERY_TOP_VALUES:
+            case QUERY_EXISTS_ENTITY:
+            case QUERY_DATA_EXTRACTION_RESULT:
+            case QUERY_DATA_EXTRACTION_SCORE:
+            case QUERY_SQL:
+                return this.baseURL + endpoint.url;
+            default:
+                throw new InvalidQueryException("The endpoint " + endpoint +
+                        " doesn't accept raw queries.");
+        }
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     A buffer with the UTF-8 encoded query, it must not be modified until the
+     *                 request finishes
+     * @return a future to get SlicingDice request result
+     */
+    public CompletableFuture<Response> queryRaw(final URLResources endpoint,
+                                                final ByteBuffer data) {
+        final String url = this.rawQueryUrl(endpoint);
+        return this.requester.post(endpoint, url, data, this.getKey(0), timeout);
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     A buffer with the UTF-8 encoded query, it must not be modified until the
+     *                 request finishes
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> queryRawAsync(final URLResources endpoint,
+                                                       final ByteBuffer data) {
+        return this.async(() -> this.queryRaw(endpoint, data));
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     The UTF-8 encoded query
+     * @return a future to get SlicingDice request result
+     */
+    public CompletableFuture<Response> queryRaw(final URLResources endpoint, final byte[] data) {
+        return this.queryRaw(endpoint, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation. Will return the SlicingDice response.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     The UTF-8 encoded query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> queryRawAsync(final URLResources endpoint,
+                                                       final byte[] data) {
+        return this.async(() -> this.queryRaw(endpoint, data));
+    }
+
+    /**
+     * Make a query with an already serialized body, skipping the JSONObject tree and the client
+     * side validation.
+     *
+     * @param endpoint The query endpoint, QUERY_SQL expects a SQL statement instead of JSON
+     * @param data     A buffer with the UTF-8 encoded query, it must not be modified until the
+     *                 request finishes
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
+     */
+    public void queryRaw(final URLResources endpoint, final ByteBuffer data,
+                         final HandlerResponse handler) {
+        final String url = this.rawQueryUrl(endpoint);
+        this.requester.post(endpoint, url, data, this.getKey(0), timeout, handler);
     }
 
     /**
@@ -330,12 +867,14 @@ public class SlicingDice {
      * @param query A JSONObject count query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> countQueryWrapper(final String url, final JSONObject query) {
+    private CompletableFuture<Response> countQueryWrapper(final URLResources endpoint,
+                                                          final String url,
+                                                          final JSONObject query) {
         final QueryCountValidator queryValidator = new QueryCountValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        return this.makeRequest(url, query, POST, 0);
+        return this.makeRequest(endpoint, url, query, POST, 0);
     }
 
     /**
@@ -345,13 +884,13 @@ public class SlicingDice {
      * @param query   A JSONObject count query
      * @param handler A handler that will call onError or onSuccess when the request finishes
      */
-    private void countQueryWrapper(final String url, final JSONObject query,
-                                   final HandlerResponse handler) {
+    private void countQueryWrapper(final URLResources endpoint, final String url,
+                                   final JSONObject query, final HandlerResponse handler) {
         final QueryCountValidator queryValidator = new QueryCountValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        this.makeRequest(url, query, POST, 0, handler);
+        this.makeRequest(endpoint, url, query, POST, 0, handler);
     }
 
     /**
@@ -361,12 +900,13 @@ public class SlicingDice {
      * @param query A JSONArray count query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> countQueryWrapper(final String url, final JSONArray query) {
+    private CompletableFuture<Response> countQueryWrapper(final URLResources endpoint,
+                                                          final String url, final JSONArray query) {
         final QueryCountValidator queryValidator = new QueryCountValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        return this.makeRequest(url, query, POST, 0);
+        return this.makeRequest(endpoint, url, query, POST, 0);
     }
 
     /**
@@ -376,13 +916,13 @@ public class SlicingDice {
      * @param query   A JSONArray count query
      * @param handler A handler that will call onError or onSuccess when the request finishes
      */
-    private void countQueryWrapper(final String url, final JSONArray query,
-                                   final HandlerResponse handler) {
+    private void countQueryWrapper(final URLResources endpoint, final String url,
+                                   final JSONArray query, final HandlerResponse handler) {
         final QueryCountValidator queryValidator = new QueryCountValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        this.makeRequest(url, query, POST, 0, handler);
+        this.makeRequest(endpoint, url, query, POST, 0, handler);
     }
 
     /**
@@ -392,12 +932,31 @@ public class SlicingDice {
      * @param query A JSONObject data extraction query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> dataExtractionWrapper(final String url, final JSONObject query) {
+    private CompletableFuture<Response> dataExtractionWrapper(final URLResources endpoint,
+                                                              final String url,
+                                                              final JSONObject query) {
         final QueryDataExtractionValidator queryValidator = new QueryDataExtractionValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        return this.makeRequest(url, query, POST, 0);
+        return this.makeRequest(endpoint, url, query, POST, 0);
+    }
+
+    /**
+     * Make a data extraction query in Slicing Dice streaming the rows of the response
+     *
+     * @param url   A url to make request
+     * @param query A JSONObject data extraction query
+     * @return a publisher of the extracted rows
+     */
+    private Publisher<JSONObject> dataExtractionStream(final URLResources endpoint,
+                                                       final String url,
+                                                       final JSONObject query) {
+        final QueryDataExtractionValidator queryValidator = new QueryDataExtractionValidator(query);
+        if (!queryValidator.validator()) {
+            throw new InvalidQueryException("Invalid query, please check the docs");
+        }
+        return this.requester.stream(endpoint, url, query.toString(), this.getKey(0), timeout);
     }
 
     /**
@@ -407,13 +966,13 @@ public class SlicingDice {
      * @param query   A JSONObject data extraction query
      * @param handler A handler that will call onError or onSuccess when the request finishes
      */
-    private void dataExtractionWrapper(final String url, final JSONObject query,
-                                       final HandlerResponse handler) {
+    private void dataExtractionWrapper(final URLResources endpoint, final String url,
+                                       final JSONObject query, final HandlerResponse handler) {
         final QueryDataExtractionValidator queryValidator = new QueryDataExtractionValidator(query);
         if (!queryValidator.validator()) {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
-        this.makeRequest(url, query, POST, 0, handler);
+        this.makeRequest(endpoint, url, query, POST, 0, handler);
     }
 
     /**
@@ -424,7 +983,18 @@ public class SlicingDice {
      */
     public Future<Response> getDatabase() {
         final String url = this.baseURL + URLResources.DATABASE.url;
-        return this.makeRequest(url, 2);
+        return this.makeRequest(URLResources.DATABASE, url, 2);
+    }
+
+    /**
+     * Get information about current database, will return A JSONObject containing properties
+     * of the current database.
+     *
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> getDatabaseAsync() {
+        return this.readAsync(URLResources.DATABASE, null, () -> this.getDatabase());
     }
 
     /**
@@ -435,7 +1005,7 @@ public class SlicingDice {
      */
     public void getDatabase(final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.DATABASE.url;
-        this.makeRequest(url, 2, handler);
+        this.makeRequest(URLResources.DATABASE, url, 2, handler);
     }
 
     /**
@@ -446,7 +1016,19 @@ public class SlicingDice {
      */
     public Future<Response> countEntity(final JSONObject query) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY.url;
-        return countQueryWrapper(url, query);
+        return countQueryWrapper(URLResources.QUERY_COUNT_ENTITY, url, query);
+    }
+
+    /**
+     * Make a count entity query in Slicing Dice API, will return a JSONObject with count entity query result
+     *
+     * @param query A JSONObject count entity query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEntityAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_COUNT_ENTITY, query,
+                () -> this.countEntity(query));
     }
 
     /**
@@ -457,7 +1039,7 @@ public class SlicingDice {
      */
     public void countEntity(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY.url;
-        countQueryWrapper(url, query, handler);
+        countQueryWrapper(URLResources.QUERY_COUNT_ENTITY, url, query, handler);
     }
 
     /**
@@ -468,7 +1050,19 @@ public class SlicingDice {
      */
     public Future<Response> countEntity(final JSONArray query) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY.url;
-        return countQueryWrapper(url, query);
+        return countQueryWrapper(URLResources.QUERY_COUNT_ENTITY, url, query);
+    }
+
+    /**
+     * Make a count entity query in Slicing Dice API, will return a JSONObject with count entity query result
+     *
+     * @param query A JSONArray count entity query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEntityAsync(final JSONArray query) {
+        return this.countAsync(URLResources.QUERY_COUNT_ENTITY, query,
+                chunk -> this.countEntity(chunk));
     }
 
     /**
@@ -479,7 +1073,7 @@ public class SlicingDice {
      */
     public void countEntity(final JSONArray query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY.url;
-        countQueryWrapper(url, query, handler);
+        countQueryWrapper(URLResources.QUERY_COUNT_ENTITY, url, query, handler);
     }
 
     /**
@@ -489,7 +1083,19 @@ public class SlicingDice {
      */
     public Future<Response> countEntityTotal() {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY_TOTAL.url;
-        return this.makeRequest(url, new JSONObject(), POST, 0);
+        return this.makeRequest(URLResources.QUERY_COUNT_ENTITY_TOTAL, url, new JSONObject(),
+                POST, 0);
+    }
+
+    /**
+     * Make a total query in Slicing Dice API, will return a JSONObject with total query result
+     *
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEntityTotalAsync() {
+        return this.readAsync(URLResources.QUERY_COUNT_ENTITY_TOTAL, null,
+                () -> this.countEntityTotal());
     }
 
     /**
@@ -499,7 +1105,8 @@ public class SlicingDice {
      */
     public void countEntityTotal(final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY_TOTAL.url;
-        this.makeRequest(url, new JSONObject(), POST, 0, handler);
+        this.makeRequest(URLResources.QUERY_COUNT_ENTITY_TOTAL, url, new JSONObject(), POST, 0,
+                handler);
     }
 
     /**
@@ -513,7 +1120,21 @@ public class SlicingDice {
         query.put("dimensions", dimensions);
 
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY_TOTAL.url;
-        return this.makeRequest(url, query, POST, 0);
+        return this.makeRequest(URLResources.QUERY_COUNT_ENTITY_TOTAL, url, query, POST, 0);
+    }
+
+    /**
+     * Make a total query in Slicing Dice API, will return a JSONObject with total query result
+     *
+     * @param dimensions A Collection containing the dimensions in which the total query will be performed
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEntityTotalAsync(
+            final Collection<String> dimensions) {
+        return this.readAsync(URLResources.QUERY_COUNT_ENTITY_TOTAL,
+                dimensions == null ? null : new JSONArray(dimensions),
+                () -> this.countEntityTotal(dimensions));
     }
 
     /**
@@ -528,7 +1149,7 @@ public class SlicingDice {
         query.put("dimensions", dimensions);
 
         final String url = this.baseURL + URLResources.QUERY_COUNT_ENTITY_TOTAL.url;
-        this.makeRequest(url, query, POST, 0, handler);
+        this.makeRequest(URLResources.QUERY_COUNT_ENTITY_TOTAL, url, query, POST, 0, handler);
     }
 
     /**
@@ -539,7 +1160,19 @@ public class SlicingDice {
      */
     public Future<Response> countEvent(final JSONObject query) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_EVENT.url;
-        return countQueryWrapper(url, query);
+        return countQueryWrapper(URLResources.QUERY_COUNT_EVENT, url, query);
+    }
+
+    /**
+     * Make a count event query in Slicing Dice API, will return a JSONObject with count event query result
+     *
+     * @param query A JSONObject count event query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEventAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_COUNT_EVENT, query,
+                () -> this.countEvent(query));
     }
 
     /**
@@ -550,7 +1183,7 @@ public class SlicingDice {
      */
     public void countEvent(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_EVENT.url;
-        countQueryWrapper(url, query, handler);
+        countQueryWrapper(URLResources.QUERY_COUNT_EVENT, url, query, handler);
     }
 
     /**
@@ -561,7 +1194,19 @@ public class SlicingDice {
      */
     public Future<Response> countEvent(final JSONArray query) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_EVENT.url;
-        return countQueryWrapper(url, query);
+        return countQueryWrapper(URLResources.QUERY_COUNT_EVENT, url, query);
+    }
+
+    /**
+     * Make a count event query in Slicing Dice API, will return a JSONObject with count event query result
+     *
+     * @param query A JSONArray count event query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> countEventAsync(final JSONArray query) {
+        return this.countAsync(URLResources.QUERY_COUNT_EVENT, query,
+                chunk -> this.countEvent(chunk));
     }
 
     /**
@@ -572,7 +1217,7 @@ public class SlicingDice {
      */
     public void countEvent(final JSONArray query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_COUNT_EVENT.url;
-        countQueryWrapper(url, query, handler);
+        countQueryWrapper(URLResources.QUERY_COUNT_EVENT, url, query, handler);
     }
 
     /**
@@ -581,14 +1226,15 @@ public class SlicingDice {
      * @param query A JSONObject aggregation query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> wrapperAggregation(final JSONObject query, final String url) {
+    private CompletableFuture<Response> wrapperAggregation(final JSONObject query,
+                                                           final String url) {
         if (!query.has("query")) {
             throw new InvalidQueryException("The aggregation query must have up the key 'query'.");
         }
         if (query.length() > 5) {
             throw new MaxLimitException("The aggregation query must have up to 5 columns per request.");
         }
-        return makeRequest(url, query, POST, 0);
+        return makeRequest(URLResources.QUERY_AGGREGATION, url, query, POST, 0);
     }
 
     /**
@@ -605,7 +1251,7 @@ public class SlicingDice {
         if (query.length() > 5) {
             throw new MaxLimitException("The aggregation query must have up to 5 columns per request.");
         }
-        makeRequest(url, query, POST, 0, handler);
+        makeRequest(URLResources.QUERY_AGGREGATION, url, query, POST, 0, handler);
     }
 
     /**
@@ -619,6 +1265,18 @@ public class SlicingDice {
         return this.wrapperAggregation(query, url);
     }
 
+    /**
+     * Make a aggregation query in Slicing Dice API, will return a JSONObject with aggregation query result
+     *
+     * @param query A JSONObject aggregation query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> aggregationAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_AGGREGATION, query,
+                () -> this.aggregation(query));
+    }
+
     /**
      * Make a aggregation query in Slicing Dice API, will return a JSONObject with aggregation query result
      *
@@ -636,10 +1294,10 @@ public class SlicingDice {
      * @param query A JSONObject top values query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> wrapperTopValues(final JSONObject query, final String url) {
+    private CompletableFuture<Response> wrapperTopValues(final JSONObject query, final String url) {
         final TopValuesValidator topValuesValidator = new TopValuesValidator(query);
         if (topValuesValidator.validator()) {
-            return makeRequest(url, query, POST, 0);
+            return makeRequest(URLResources.QUERY_TOP_VALUES, url, query, POST, 0);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -655,7 +1313,7 @@ public class SlicingDice {
                                   final HandlerResponse handler) {
         final TopValuesValidator topValuesValidator = new TopValuesValidator(query);
         if (topValuesValidator.validator()) {
-            makeRequest(url, query, POST, 0, handler);
+            makeRequest(URLResources.QUERY_TOP_VALUES, url, query, POST, 0, handler);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -672,6 +1330,18 @@ public class SlicingDice {
         return this.wrapperTopValues(query, url);
     }
 
+    /**
+     * Make a top values query in Slicing Dice API, will return a JSONObject with top values query result
+     *
+     * @param query A JSONObject top values query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> topValuesAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_TOP_VALUES, query,
+                () -> this.topValues(query));
+    }
+
     /**
      * Make a top values query in Slicing Dice API, will return a JSONObject with top values query result
      *
@@ -690,8 +1360,9 @@ public class SlicingDice {
      * @param dimension In which dimension entities check be checked
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> wrapperExistsEntity(final JSONArray ids, final String dimension,
-                                                 final String url)
+    private CompletableFuture<Response> wrapperExistsEntity(final JSONArray ids,
+                                                            final String dimension,
+                                                            final String url)
             throws MaxLimitException {
         if (ids.length() > 100) {
             throw new MaxLimitException("The query exists entity must have up to 100 ids.");
@@ -700,7 +1371,7 @@ public class SlicingDice {
         if (dimension != null) {
             query.put("dimension", dimension);
         }
-        return this.makeRequest(url, query, POST, 0);
+        return this.makeRequest(URLResources.QUERY_EXISTS_ENTITY, url, query, POST, 0);
     }
 
     /**
@@ -720,7 +1391,7 @@ public class SlicingDice {
         if (dimension != null) {
             query.put("dimension", dimension);
         }
-        this.makeRequest(url, query, POST, 0, handler);
+        this.makeRequest(URLResources.QUERY_EXISTS_ENTITY, url, query, POST, 0, handler);
     }
 
     /**
@@ -735,6 +1406,21 @@ public class SlicingDice {
         return this.wrapperExistsEntity(ids, dimension, url);
     }
 
+    /**
+     * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
+     *
+     * @param ids   A JSONArray exists entity query
+     * @param dimension In which dimension entities check be checked
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> existsEntityAsync(final JSONArray ids,
+                                                           final String dimension) {
+        return this.readAsync(URLResources.QUERY_EXISTS_ENTITY,
+                new JSONObject().put("ids", ids).put("dimension", dimension),
+                () -> this.existsEntity(ids, dimension));
+    }
+
     /**
      * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
      *
@@ -758,6 +1444,19 @@ public class SlicingDice {
         return this.existsEntity(ids, null);
     }
 
+    /**
+     * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
+     *
+     * @param ids A JSONArray exists entity query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> existsEntityWithoutDimensionAsync(final JSONArray ids) {
+        return this.readAsync(URLResources.QUERY_EXISTS_ENTITY,
+                new JSONObject().put("ids", ids),
+                () -> this.existsEntityWithoutDimension(ids));
+    }
+
     /**
      * Make a exists entity query in Slicing Dice API, will return A JSONObject with exists entity query result
      *
@@ -776,7 +1475,19 @@ public class SlicingDice {
      */
     public Future<Response> getSavedQuery(final String queryName) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        return this.makeRequest(url, 0);
+        return this.makeRequest(URLResources.QUERY_SAVED, url, 0);
+    }
+
+    /**
+     * Query SlicingDice API for saved queries, will return JSONObject with get saved query result
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> getSavedQueryAsync(final String queryName) {
+        return this.readAsync(URLResources.QUERY_SAVED, queryName,
+                () -> this.getSavedQuery(queryName));
     }
 
     /**
@@ -787,7 +1498,7 @@ public class SlicingDice {
      */
     public void getSavedQuery(final String queryName, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        this.makeRequest(url, 0, handler);
+        this.makeRequest(URLResources.QUERY_SAVED, url, 0, handler);
     }
 
     /**
@@ -797,7 +1508,17 @@ public class SlicingDice {
      */
     public Future<Response> getSavedQueries() {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url;
-        return this.makeRequest(url, 2);
+        return this.makeRequest(URLResources.QUERY_SAVED, url, 2);
+    }
+
+    /**
+     * Query SlicingDice API for all saved queries, will return a JSONObject with get saved query result
+     *
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> getSavedQueriesAsync() {
+        return this.readAsync(URLResources.QUERY_SAVED, null, () -> this.getSavedQueries());
     }
 
     /**
@@ -805,7 +1526,7 @@ public class SlicingDice {
      */
     public void getSavedQueries(final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url;
-        this.makeRequest(url, 2, handler);
+        this.makeRequest(URLResources.QUERY_SAVED, url, 2, handler);
     }
 
     /**
@@ -816,7 +1537,18 @@ public class SlicingDice {
      */
     public Future<Response> deleteSavedQuery(final String queryName) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        return this.makeRequest(url, null, DELETE, 2);
+        return this.makeRequest(URLResources.QUERY_SAVED, url, null, DELETE, 2);
+    }
+
+    /**
+     * Delete a previous saved query on SlicingDice API, will return a JSONObject with get saved query result
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> deleteSavedQueryAsync(final String queryName) {
+        return this.async(() -> this.deleteSavedQuery(queryName));
     }
 
     /**
@@ -827,7 +1559,7 @@ public class SlicingDice {
      */
     public void deleteSavedQuery(final String queryName, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        this.makeRequest(url, null, DELETE, 2, handler);
+        this.makeRequest(URLResources.QUERY_SAVED, url, null, DELETE, 2, handler);
     }
 
     /**
@@ -836,14 +1568,15 @@ public class SlicingDice {
      * @param query A JSONObject saved query
      * @return a future to get SlicingDice request result
      */
-    private Future<Response> wrapperCreateSavedQuery(final JSONObject query, final String url) {
+    private CompletableFuture<Response> wrapperCreateSavedQuery(final JSONObject query,
+                                                                final String url) {
         if (query.has("name") && query.has("type") && query.has("query")) {
             final String queryType = query.getString("type");
             if (!this.queryTypes.contains(queryType)) {
                 throw new InvalidQueryException("The query saved has a invalid type.(" + queryType
                         + ").");
             }
-            return this.makeRequest(url, query, POST, 1);
+            return this.makeRequest(URLResources.QUERY_SAVED, url, query, POST, 1);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -863,7 +1596,7 @@ public class SlicingDice {
                 throw new InvalidQueryException("The query saved has a invalid type.(" + queryType
                         + ").");
             }
-            this.makeRequest(url, query, POST, 1, handler);
+            this.makeRequest(URLResources.QUERY_SAVED, url, query, POST, 1, handler);
         } else {
             throw new InvalidQueryException("Invalid query, please check the docs");
         }
@@ -880,6 +1613,17 @@ public class SlicingDice {
         return this.wrapperCreateSavedQuery(query, url);
     }
 
+    /**
+     * Create a saved query in Slicing Dice API, will return a JSONObject with saved query if request was successful
+     *
+     * @param query A JSONObject saved query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> createSavedQueryAsync(final JSONObject query) {
+        return this.async(() -> this.createSavedQuery(query));
+    }
+
     /**
      * Create a saved query in Slicing Dice API, will return a JSONObject with saved query if request was successful
      *
@@ -898,9 +1642,23 @@ public class SlicingDice {
      * @param query     A JSONObject saved query
      * @return a future to get SlicingDice request result
      */
-    public Future<Response> updateSavedQuery(final String queryName, final JSONObject query) {
+    public Future<Response> updateSavedQuery(final String queryName,
+                                              final JSONObject query) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        return this.makeRequest(url, query, PUT, 2);
+        return this.makeRequest(URLResources.QUERY_SAVED, url, query, PUT, 2);
+    }
+
+    /**
+     * Update a saved query in Slicing Dice API, will return a JSONObject with new saved query if request was successful
+     *
+     * @param queryName the name of the saved query that you want to retrieve
+     * @param query     A JSONObject saved query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> updateSavedQueryAsync(final String queryName,
+                                                               final JSONObject query) {
+        return this.async(() -> this.updateSavedQuery(queryName, query));
     }
 
     /**
@@ -913,7 +1671,7 @@ public class SlicingDice {
     public void updateSavedQuery(final String queryName, final JSONObject query,
                                  final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_SAVED.url + queryName;
-        this.makeRequest(url, query, PUT, 2, handler);
+        this.makeRequest(URLResources.QUERY_SAVED, url, query, PUT, 2, handler);
     }
 
     /**
@@ -924,7 +1682,19 @@ public class SlicingDice {
      */
     public Future<Response> score(final JSONObject query) {
         final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_SCORE.url;
-        return dataExtractionWrapper(url, query);
+        return dataExtractionWrapper(URLResources.QUERY_DATA_EXTRACTION_SCORE, url, query);
+    }
+
+    /**
+     * Make a data extraction score query in Slicing Dice API, will return a JSONObject with data extraction score query result
+     *
+     * @param query A JSONObject data extraction score query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> scoreAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_DATA_EXTRACTION_SCORE, query,
+                () -> this.score(query));
     }
 
     /**
@@ -935,7 +1705,20 @@ public class SlicingDice {
      */
     public void score(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_SCORE.url;
-        dataExtractionWrapper(url, query, handler);
+        dataExtractionWrapper(URLResources.QUERY_DATA_EXTRACTION_SCORE, url, query, handler);
+    }
+
+    /**
+     * Make a data extraction score query in Slicing Dice API, streaming each entity of the
+     * response as soon as it is read. The request is sent when a subscriber subscribes and
+     * network reads pause while the subscriber has no demand.
+     *
+     * @param query A JSONObject data extraction score query
+     * @return a publisher of the entities of the response, it can be subscribed once
+     */
+    public Publisher<JSONObject> scoreStream(final JSONObject query) {
+        final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_SCORE.url;
+        return dataExtractionStream(URLResources.QUERY_DATA_EXTRACTION_SCORE, url, query);
     }
 
     /**
@@ -946,7 +1729,19 @@ public class SlicingDice {
      */
     public Future<Response> result(final JSONObject query) {
         final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_RESULT.url;
-        return dataExtractionWrapper(url, query);
+        return dataExtractionWrapper(URLResources.QUERY_DATA_EXTRACTION_RESULT, url, query);
+    }
+
+    /**
+     * Make a data extraction result query in Slicing Dice API, will return a JSONObject with result of data extraction result query
+     *
+     * @param query A JSONObject data extraction result query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> resultAsync(final JSONObject query) {
+        return this.readAsync(URLResources.QUERY_DATA_EXTRACTION_RESULT, query,
+                () -> this.result(query));
     }
 
     /**
@@ -957,7 +1752,20 @@ public class SlicingDice {
      */
     public void result(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_RESULT.url;
-        dataExtractionWrapper(url, query, handler);
+        dataExtractionWrapper(URLResources.QUERY_DATA_EXTRACTION_RESULT, url, query, handler);
+    }
+
+    /**
+     * Make a data extraction result query in Slicing Dice API, streaming each entity of the
+     * response as soon as it is read. The request is sent when a subscriber subscribes and
+     * network reads pause while the subscriber has no demand.
+     *
+     * @param query A JSONObject data extraction result query
+     * @return a publisher of the entities of the response, it can be subscribed once
+     */
+    public Publisher<JSONObject> resultStream(final JSONObject query) {
+        final String url = this.baseURL + URLResources.QUERY_DATA_EXTRACTION_RESULT.url;
+        return dataExtractionStream(URLResources.QUERY_DATA_EXTRACTION_RESULT, url, query);
     }
 
     /**
@@ -969,7 +1777,18 @@ public class SlicingDice {
     public Future<Response> sql(final String query) {
         final String url = this.baseURL + URLResources.QUERY_SQL.url;
         final String apiKey = this.getKey(0);
-        return Requester.post(url, query, apiKey, timeout, true);
+        return this.requester.post(URLResources.QUERY_SQL, url, query, apiKey, timeout);
+    }
+
+    /**
+     * Make a sql query query in Slicing Dice API, will return a JSONObject with result of sql query
+     *
+     * @param query A JSONObject data extraction result query
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> sqlAsync(final String query) {
+        return this.readAsync(URLResources.QUERY_SQL, query, () -> this.sql(query));
     }
 
     /**
@@ -981,7 +1800,7 @@ public class SlicingDice {
     public void sql(final String query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.QUERY_SQL.url;
         final String apiKey = this.getKey(0);
-        Requester.post(url, query, apiKey, timeout, handler, true);
+        this.requester.post(URLResources.QUERY_SQL, url, query, apiKey, timeout, handler);
     }
 
     /**
@@ -992,7 +1811,18 @@ public class SlicingDice {
      */
     public Future<Response> delete(final JSONObject query) {
         final String url = this.baseURL + URLResources.DELETE.url;
-        return this.makeRequest(url, query, POST, 2);
+        return this.makeRequest(URLResources.DELETE, url, query, POST, 2);
+    }
+
+    /**
+     * Make a delete request
+     *
+     * @param query A JSONObject that represents the query to delete
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> deleteAsync(final JSONObject query) {
+        return this.async(() -> this.delete(query));
     }
 
     /**
@@ -1002,7 +1832,7 @@ public class SlicingDice {
      */
     public void delete(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.DELETE.url;
-        this.makeRequest(url, query, POST, 2, handler);
+        this.makeRequest(URLResources.DELETE, url, query, POST, 2, handler);
     }
 
     /**
@@ -1013,7 +1843,18 @@ public class SlicingDice {
      */
     public Future<Response> update(final JSONObject query) {
         final String url = this.baseURL + URLResources.UPDATE.url;
-        return this.makeRequest(url, query, POST, 2);
+        return this.makeRequest(URLResources.UPDATE, url, query, POST, 2);
+    }
+
+    /**
+     * Make a update request
+     *
+     * @param query A JSONObject that represents the query to update
+     * @return a future completed with the SlicingDice response, or exceptionally with the
+     * SlicingDiceException raised by the request
+     */
+    public CompletableFuture<JSONObject> updateAsync(final JSONObject query) {
+        return this.async(() -> this.update(query));
     }
 
     /**
@@ -1023,7 +1864,93 @@ public class SlicingDice {
      */
     public void update(final JSONObject query, final HandlerResponse handler) {
         final String url = this.baseURL + URLResources.UPDATE.url;
-        this.makeRequest(url, query, POST, 2, handler);
+        this.makeRequest(URLResources.UPDATE, url, query, POST, 2, handler);
     }
 
+    /**
+     * Make a count query array, split in requests of 10 queries when the fan-out is enabled
+     *
+     * @param endpoint The count endpoint
+     * @param query    A JSONArray of count queries
+     * @param request  Makes the request of an array of queries
+     * @return a future completed with the results of every query, or exceptionally with the
+     * first error of a request
+     */
+    private CompletableFuture<JSONObject> countAsync(final URLResources endpoint,
+            final JSONArray query,
+            final Function<JSONArray, ? extends Future<Response>> request) {
+        if (!this.countFanOut || query == null ||
+                query.length() <= QueryCountValidator.MAX_QUERIES) {
+            return this.readAsync(endpoint, query, () -> request.apply(query));
+        }
+
+        final List<CompletableFuture<JSONObject>> chunks = new ArrayList<>();
+        for (int start = 0; start < query.length(); start += QueryCountValidator.MAX_QUERIES) {
+            final JSONArray chunk = new JSONArray();
+            final int end = Math.min(query.length(), start + QueryCountValidator.MAX_QUERIES);
+            for (int i = start; i < end; i++) {
+                chunk.put(query.get(i));
+            }
+            chunks.add(this.readAsync(endpoint, chunk, () -> request.apply(chunk)));
+        }
+
+        final CompletableFuture<JSONObject> merged = new CompletableFuture<>();
+        merged.whenComplete((json, error) -> {
+            if (error != null) {
+                chunks.forEach(chunk -> chunk.cancel(true));
+            }
+        });
+        for (final CompletableFuture<JSONObject> chunk : chunks) {
+            chunk.whenComplete((json, error) -> {
+                if (error != null) {
+                    merged.completeExceptionally(error);
+                }
+            });
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        return;
+                    }
+                    // chunks are merged in order so a repeated query name keeps its last
+                    // result, as it would in a single request
+                    final JSONObject result = new JSONObject();
+                    double took = 0;
+                    for (final CompletableFuture<JSONObject> chunk : chunks) {
+                        final JSONObject json = chunk.join();
+                        final JSONObject chunkResult = json.optJSONObject("result");
+                        if (chunkResult != null) {
+                            for (final String name : chunkResult.keySet()) {
+                                result.put(name, chunkResult.get(name));
+                            }
+                        }
+                        took = Math.max(took, json.optDouble("took", 0));
+                    }
+                    merged.complete(new JSONObject()
+                            .put("status", "success")
+                            .put("result", result)
+                            .put("took", took));
+                });
+        return merged;
+    }
+
+    /**
+     * A read request shared by identical queries, followers and waiters are written inside the
+     * inFlight map operations on its key and followers is read once the flight was removed
+     */
+    private static final class Flight {
+        private final CompletableFuture<String> shared = new CompletableFuture<>();
+
+        private volatile CompletableFuture<JSONObject> request;
+
+        /**
+         * Calls that joined the flight after it started
+         */
+        private int followers;
+
+        /**
+         * Calls waiting for the flight and not cancelled, the first one included
+         */
+        private int waiters = 1;
+    }
 }
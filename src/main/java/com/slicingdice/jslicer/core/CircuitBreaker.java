@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker of an endpoint. While closed, the outcomes of the latest calls are kept in a
+ * sliding window and the breaker opens when the rate of failed or slow calls reaches its
+ * threshold. While open, calls fail immediately with a CircuitOpenException. Once the open
+ * duration elapses the breaker lets a few trial calls through (half-open) and closes again if
+ * they succeed.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final long slowCallDuration;
+
+    private final int minCalls;
+
+    private final long openDuration;
+
+    private final int halfOpenCalls;
+
+    private final byte[] window;
+
+    private State state = State.CLOSED;
+
+    private int count;
+
+    private int next;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private long openUntil;
+
+    private int halfOpenPermits;
+
+    private CircuitBreaker(final Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDuration = TimeUnit.MILLISECONDS.toNanos(builder.slowCallDuration);
+        this.minCalls = builder.minCalls;
+        this.openDuration = TimeUnit.MILLISECONDS.toNanos(builder.openDuration);
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.window = new byte[builder.windowSize];
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a breaker opening for 30s when half of the latest 100 calls failed
+     */
+    public static CircuitBreaker defaults() {
+        return builder().build();
+    }
+
+    public State getState() {
+        this.lock.lock();
+        try {
+            return this.state;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if a call can be sent, moving the breaker to half-open once the open duration
+     * elapsed
+     *
+     * @return false if the call must fail immediately
+     */
+    boolean tryAcquire() {
+        this.lock.lock();
+        try {
+            if (this.state == State.OPEN) {
+                if (System.nanoTime() - this.openUntil < 0) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.reset();
+                this.halfOpenPermits = this.halfOpenCalls;
+            }
+            if (this.state == State.HALF_OPEN) {
+                if (this.halfOpenPermits == 0) {
+                    return false;
+                }
+                this.halfOpenPermits--;
+            }
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Record the outcome of a call allowed by {@link #tryAcquire()}
+     *
+     * @param latency The call latency in nanoseconds
+     * @param failed  If the call failed with an error or a 5xx response
+     */
+    void onResult(final long latency, final boolean failed) {
+        byte outcome = 0;
+        if (failed) {
+            outcome |= FAILED;
+        }
+        if (latency >= this.slowCallDuration) {
+            outcome |= SLOW;
+        }
+
+        this.lock.lock();
+        try {
+            if (this.state == State.OPEN) {
+                return;
+            }
+            this.record(outcome);
+
+            if (this.state == State.HALF_OPEN) {
+                if (this.count >= this.halfOpenCalls) {
+                    if (this.isOverThreshold()) {
+                        this.open();
+                    } else {
+                        this.state = State.CLOSED;
+                        this.reset();
+                    }
+                }
+            } else if (this.count >= this.minCalls && this.isOverThreshold()) {
+                this.open();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Give back the permit of a call that finished without outcome, like a cancelled call
+     */
+    void onIgnored() {
+        this.lock.lock();
+        try {
+            if (this.state == State.HALF_OPEN) {
+                this.halfOpenPermits++;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void record(final byte outcome) {
+        if (this.count == this.window.length) {
+            final byte evicted = this.window[this.next];
+            if ((evicted & FAILED) != 0) {
+                this.failures--;
+            }
+            if ((evicted & SLOW) != 0) {
+                this.slowCalls--;
+            }
+        } else {
+            this.count++;
+        }
+        this.window[this.next] = outcome;
+        this.next = (this.next + 1) % this.window.length;
+        if ((outcome & FAILED) != 0) {
+            this.failures++;
+        }
+        if ((outcome & SLOW) != 0) {
+            this.slowCalls++;
+        }
+    }
+
+    private boolean isOverThreshold() {
+        return this.failures >= this.failureRateThreshold * this.count ||
+                this.slowCalls >= this.slowCallRateThreshold * this.count;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openUntil = System.nanoTime() + this.openDuration;
+        this.reset();
+    }
+
+    private void reset() {
+        this.count = 0;
+        this.next = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+    }
+
+    public static class Builder {
+
+        private double failureRateThreshold = 0.5;
+
+        private double slowCallRateThreshold = 1.0;
+
+        private long slowCallDuration = 10000;
+
+        private int windowSize = 100;
+
+        private int minCalls = 20;
+
+        private long openDuration = 30000;
+
+        private int halfOpenCalls = 5;
+
+        private Builder() {
+        }
+
+        /**
+         * @param failureRateThreshold Fraction of failed calls in the window opening the
+         *                             breaker, between 0 and 1
+         */
+        public Builder failureRateThreshold(final double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallRateThreshold Fraction of slow calls in the window opening the
+         *                              breaker, between 0 and 1
+         */
+        public Builder slowCallRateThreshold(final double slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCallDuration Time in milliseconds after which a call is slow
+         */
+        public Builder slowCallDuration(final long slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+            return this;
+        }
+
+        /**
+         * @param windowSize Number of latest calls used to compute the rates
+         */
+        public Builder windowSize(final int windowSize) {
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize must be at least 1");
+            }
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * @param minCalls Number of calls needed in the window before the breaker can open
+         */
+        public Builder minCalls(final int minCalls) {
+            this.minCalls = minCalls;
+            return this;
+        }
+
+        /**
+         * @param openDuration Time in milliseconds calls fail immediately once the breaker opens
+         */
+        public Builder openDuration(final long openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * @param halfOpenCalls Number of trial calls deciding if the breaker closes again
+         */
+        public Builder halfOpenCalls(final int halfOpenCalls) {
+            if (halfOpenCalls < 1) {
+                throw new IllegalArgumentException("halfOpenCalls must be at least 1");
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            if (this.halfOpenCalls > this.windowSize) {
+                throw new IllegalArgumentException("halfOpenCalls must not exceed windowSize");
+            }
+            return new CircuitBreaker(this);
+        }
+    }
+}
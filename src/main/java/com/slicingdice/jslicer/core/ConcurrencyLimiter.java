@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import com.slicingdice.jslicer.exceptions.client.ConcurrencyLimitException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Adaptive limit of requests in flight. The limit grows additively while the latency stays
+ * close to the lowest latency observed and shrinks multiplicatively on timeouts, 5xx and rate
+ * limit responses (AIMD). Requests over the limit are queued or shed according to the
+ * {@link OverflowPolicy}.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * What to do with a request when the limit is reached
+     */
+    public enum OverflowPolicy {
+        /**
+         * Queue the request, rejecting new requests once the queue is full
+         */
+        QUEUE,
+        /**
+         * Queue the request, rejecting the oldest queued request once the queue is full
+         */
+        DROP_OLDEST,
+        /**
+         * Reject the request immediately
+         */
+        REJECT
+    }
+
+    /**
+     * Number of samples after which the lowest latency is measured again, so the limiter
+     * follows changes of the network or of the API
+     */
+    private static final int MIN_LATENCY_WINDOW = 1000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double latencyTolerance;
+
+    private final int maxQueueSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long minLatency = Long.MAX_VALUE;
+
+    private long nextMinLatency = Long.MAX_VALUE;
+
+    private int samples;
+
+    private ConcurrencyLimiter(final Builder builder) {
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.maxQueueSize = builder.maxQueueSize;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.limit = builder.initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the current limit of requests in flight
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int) this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for the limit
+     */
+    public int getQueued() {
+        this.lock.lock();
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Run a task once a slot is available, the task must call one of the release methods when
+     * its request finishes
+     *
+     * @param task   The task sending the request
+     * @param reject Called instead of the task if the request is shed
+     */
+    void acquire(final Runnable task, final Consumer<Throwable> reject) {
+        final Waiter waiter = new Waiter(task, reject);
+        final Waiter shed;
+        this.lock.lock();
+        try {
+            if (this.inFlight < (int) this.limit) {
+                this.inFlight++;
+                shed = null;
+            } else if (this.overflowPolicy == OverflowPolicy.REJECT) {
+                shed = waiter;
+            } else if (this.queue.size() < this.maxQueueSize) {
+                this.queue.addLast(waiter);
+                return;
+            } else if (this.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                shed = this.queue.pollFirst();
+                this.queue.addLast(waiter);
+            } else {
+                shed = waiter;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (shed == null) {
+            task.run();
+        } else {
+            shed.reject.accept(new ConcurrencyLimitException(
+                    "SlicingDice: request shed, the concurrency limit and its queue are full."));
+        }
+    }
+
+    /**
+     * Release a slot without reporting a sample, used when the request was not sent
+     */
+    void release() {
+        final ArrayDeque<Waiter> ready;
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            ready = this.pollReady();
+        } finally {
+            this.lock.unlock();
+        }
+        run(ready);
+    }
+
+    /**
+     * Release a slot and adapt the limit
+     *
+     * @param latency The request latency in nanoseconds
+     * @param dropped If the request timed out or was rejected because the API is overloaded
+     */
+    void release(final long latency, final boolean dropped) {
+        final ArrayDeque<Waiter> ready;
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            if (dropped) {
+                this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+            } else {
+                this.nextMinLatency = Math.min(this.nextMinLatency, latency);
+                if (++this.samples >= MIN_LATENCY_WINDOW) {
+                    this.minLatency = this.nextMinLatency;
+                    this.nextMinLatency = Long.MAX_VALUE;
+                    this.samples = 0;
+                }
+                this.minLatency = Math.min(this.minLatency, latency);
+
+                // only grow when the limit is actually used and the latency is stable
+                if (latency <= this.minLatency * this.latencyTolerance &&
+                        this.inFlight + 1 >= this.limit / 2) {
+                    this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+                }
+            }
+            ready = this.pollReady();
+        } finally {
+            this.lock.unlock();
+        }
+        run(ready);
+    }
+
+    /**
+     * Take the queued requests fitting in the limit, must be called holding the lock
+     */
+    private ArrayDeque<Waiter> pollReady() {
+        ArrayDeque<Waiter> ready = null;
+        while (this.inFlight < (int) this.limit && !this.queue.isEmpty()) {
+            if (ready == null) {
+                ready = new ArrayDeque<>();
+            }
+            this.inFlight++;
+            ready.add(this.queue.pollFirst());
+        }
+        return ready;
+    }
+
+    private static void run(final ArrayDeque<Waiter> ready) {
+        if (ready != null) {
+            for (final Waiter waiter : ready) {
+                waiter.task.run();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final Runnable task;
+
+        private final Consumer<Throwable> reject;
+
+        private Waiter(final Runnable task, final Consumer<Throwable> reject) {
+            this.task = task;
+            this.reject = reject;
+        }
+    }
+
+    public static class Builder {
+
+        private int initialLimit = 20;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 1000;
+
+        private double backoffRatio = 0.9;
+
+        private double latencyTolerance = 2.0;
+
+        private int maxQueueSize = 10000;
+
+        private OverflowPolicy overflowPolicy = OverflowPolicy.QUEUE;
+
+        private Builder() {
+        }
+
+        /**
+         * @param initialLimit Number of requests allowed in flight before any adaptation
+         */
+        public Builder initialLimit(final int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * @param minLimit The limit never shrinks below this value
+         */
+        public Builder minLimit(final int minLimit) {
+            if (minLimit < 1) {
+                throw new IllegalArgumentException("minLimit must be at least 1");
+            }
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * @param maxLimit The limit never grows above this value
+         */
+        public Builder maxLimit(final int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * @param backoffRatio Factor applied to the limit on a timeout or overload response
+         */
+        public Builder backoffRatio(final double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * @param latencyTolerance How many times the lowest observed latency a request can take
+         *                         and still let the limit grow
+         */
+        public Builder latencyTolerance(final double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * @param maxQueueSize Max number of requests waiting for the limit
+         */
+        public Builder maxQueueSize(final int maxQueueSize) {
+            this.maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        /**
+         * @param overflowPolicy What to do with requests over the limit
+         */
+        public Builder overflowPolicy(final OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        public ConcurrencyLimiter build() {
+            if (this.initialLimit < this.minLimit || this.initialLimit > this.maxLimit) {
+                throw new IllegalArgumentException("initialLimit must be between minLimit and " +
+                        "maxLimit");
+            }
+            return new ConcurrencyLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+/**
+ * Incremental scanner of a Slicing Dice data extraction response. Body chunks are fed as they
+ * arrive and each object of the top level 'data' array is parsed as soon as it is complete, so
+ * the whole response is never buffered. The top level 'errors' value is kept to raise the API
+ * error once the response ends.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+class DataArrayParser {
+
+    private static final String DATA = "data";
+
+    private static final String ERRORS = "errors";
+
+    private final Consumer<JSONObject> onRow;
+
+    private final ByteArrayOutputStream key = new ByteArrayOutputStream();
+
+    private ByteArrayOutputStream capture;
+
+    private int captureDepth;
+
+    private int depth;
+
+    private boolean inString;
+
+    private boolean escaped;
+
+    private boolean expectingKey;
+
+    private boolean readingKey;
+
+    private boolean inData;
+
+    private String member;
+
+    private String errors;
+
+    /**
+     * @param onRow Called with each object of the 'data' array
+     */
+    DataArrayParser(final Consumer<JSONObject> onRow) {
+        this.onRow = onRow;
+    }
+
+    /**
+     * @return the raw value of the top level 'errors' key, null if the response has no error
+     */
+    String getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * Scan a chunk of the response body
+     */
+    void feed(final ByteBuffer chunk) {
+        while (chunk.hasRemaining()) {
+            final byte current = chunk.get();
+            if (this.capture != null) {
+                this.capture.write(current);
+            }
+
+            if (this.inString) {
+                if (this.escaped) {
+                    this.escaped = false;
+                } else if (current == '\\') {
+                    this.escaped = true;
+                } else if (current == '"') {
+                    this.inString = false;
+                    if (this.readingKey) {
+                        this.readingKey = false;
+                        this.member = new String(this.key.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    continue;
+                }
+                if (this.readingKey) {
+                    this.key.write(current);
+                }
+                continue;
+            }
+
+            switch (current) {
+                case '"':
+                    this.inString = true;
+                    if (this.depth == 1 && this.expectingKey) {
+                        this.expectingKey = false;
+                        this.readingKey = true;
+                        this.key.reset();
+                    }
+                    break;
+                case '{':
+                case '[':
+                    if (this.capture == null) {
+                        if (this.depth == 2 && this.inData && current == '{') {
+                            this.startCapture(current);
+                        } else if (this.depth == 1 && ERRORS.equals(this.member)) {
+                            this.startCapture(current);
+                        }
+                    }
+                    if (this.depth == 1 && DATA.equals(this.member) && current == '[') {
+                        this.inData = true;
+                    }
+                    this.depth++;
+                    if (this.depth == 1) {
+                        this.expectingKey = true;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    this.depth--;
+                    if (this.capture != null && this.depth == this.captureDepth) {
+                        this.endCapture();
+                    }
+                    if (this.depth == 1) {
+                        this.inData = false;
+                    }
+                    break;
+                case ',':
+                    if (this.depth == 1) {
+                        this.expectingKey = true;
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    private void startCapture(final byte first) {
+        this.capture = new ByteArrayOutputStream();
+        this.capture.write(first);
+        this.captureDepth = this.depth;
+    }
+
+    private void endCapture() {
+        final String value = new String(this.capture.toByteArray(), StandardCharsets.UTF_8);
+        this.capture = null;
+        if (this.depth == 1) {
+            this.errors = value;
+        } else {
+            this.onRow.accept(new JSONObject(value));
+        }
+    }
+}
@@ -15,18 +15,11 @@
  */
 package com.slicingdice.jslicer.core;
 
-import com.slicingdice.jslicer.exceptions.DemoUnavailableException;
-import com.slicingdice.jslicer.exceptions.IndexColumnsLimitException;
-import com.slicingdice.jslicer.exceptions.IndexEntitiesLimitException;
-import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
-import com.slicingdice.jslicer.exceptions.RequestRateLimitException;
-import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
 import com.slicingdice.jslicer.exceptions.api.InternalException;
+import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
 import io.netty.handler.codec.http.HttpHeaders;
+import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONException;
-
-import java.util.logging.Logger;
 
 /**
  * Find for Slicing Dice internal API errors in JSON result
@@ -37,8 +30,6 @@ import java.util.logging.Logger;
  */
 public abstract class HandlerResponse {
 
-    private static final Logger logger = Logger.getLogger(HandlerResponse.class.getCanonicalName());
-
     private String result;
 
     private JSONObject data;
@@ -65,22 +56,7 @@ public abstract class HandlerResponse {
      * @param error A JSONObject with values from key 'errors'
      */
     private void raiseError(final JSONObject error) throws SlicingDiceException {
-        final int codeError = error.getInt("code");
-
-        switch (codeError) {
-            case 2:
-                throw new DemoUnavailableException(error);
-            case 1502:
-                throw new RequestRateLimitException(error);
-            case 1507:
-                throw new RequestBodySizeExceededException(error);
-            case 2012:
-                throw new IndexEntitiesLimitException(error);
-            case 2013:
-                throw new IndexColumnsLimitException(error);
-            default:
-                throw new SlicingDiceException(error);
-        }
+        throw ResponseParser.toException(error);
     }
 
     /**
@@ -93,10 +69,10 @@ public abstract class HandlerResponse {
         this.statusCode = statusCode;
 
         try {
-            this.data = new JSONObject(this.result);
-        } catch (final JSONException exception) {
-            logger.severe(String.format("Couldn't parse JSON '%s'", this.result));
-            throw new InternalException("SlicingDice: Error while parsing JSON.", exception);
+            this.data = ResponseParser.parse(this.result);
+        } catch (final InternalException exception) {
+            this.onFailure(exception);
+            return;
         }
 
         if (this.data.has("errors")) {
@@ -109,4 +85,23 @@ public abstract class HandlerResponse {
     public abstract void onSuccess(final JSONObject data) throws Exception;
 
     public abstract void onError(final JSONObject data) throws Exception;
+
+    /**
+     * Called instead of onSuccess and onError when the request failed without an API response,
+     * for example when the circuit breaker of the endpoint is open, the concurrency limit was
+     * reached, the connection failed or the response is not JSON. By default onError is called
+     * with an error built from the exception: the code of a SlicingDiceException, 0 for the
+     * other exceptions, and the exception message.
+     *
+     * @param error The exception that failed the request
+     */
+    public void onFailure(final Throwable error) throws Exception {
+        final int code = error instanceof SlicingDiceException ?
+                ((SlicingDiceException) error).getCode() : 0;
+        final String message = error.getMessage() != null ? error.getMessage() :
+                error.toString();
+        this.data = new JSONObject().put("errors", new JSONArray().put(new JSONObject()
+                .put("code", code).put("message", message)));
+        this.onError(this.data);
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging policy for read queries: when a request takes longer than a percentile of the
+ * endpoint's recent response times a duplicate request is sent, the first response wins and
+ * the other request is cancelled. Hedges are bounded by a budget relative to the number of
+ * requests made with the policy so a slow API is not flooded with duplicates.
+ *
+ * A response time is measured from the first request of a call to its first response, so a
+ * request beaten by its hedge still counts for at least the hedge delay and the percentile
+ * keeps following the slow requests hedging cuts short.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class HedgePolicy {
+
+    /**
+     * Budget tokens are stored in millionths to keep fractional deposits in an AtomicLong
+     */
+    private static final long TOKEN = 1000000L;
+
+    private final double percentile;
+
+    private final long minDelay;
+
+    private final int minSamples;
+
+    private final long budgetDeposit;
+
+    private final long budgetReserve;
+
+    private final AtomicLong budget;
+
+    private HedgePolicy(final Builder builder) {
+        this.percentile = builder.percentile;
+        this.minDelay = builder.minDelay;
+        this.minSamples = builder.minSamples;
+        this.budgetDeposit = (long) (builder.budgetRatio * TOKEN);
+        this.budgetReserve = builder.budgetReserve * TOKEN;
+        this.budget = new AtomicLong(this.budgetReserve);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a policy hedging at the p95 latency, at most 10% of the requests
+     */
+    public static HedgePolicy defaults() {
+        return builder().build();
+    }
+
+    public double getPercentile() {
+        return this.percentile;
+    }
+
+    /**
+     * Record a new request, each request adds its share to the hedging budget
+     */
+    void onRequest() {
+        long current;
+        do {
+            current = this.budget.get();
+            if (current >= this.budgetReserve) {
+                return;
+            }
+        } while (!this.budget.compareAndSet(current,
+                Math.min(this.budgetReserve, current + this.budgetDeposit)));
+    }
+
+    /**
+     * Take a token from the budget if a hedge can be sent
+     */
+    boolean tryHedge() {
+        long current;
+        do {
+            current = this.budget.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!this.budget.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * @param tracker The response times of the endpoint
+     * @return the delay in milliseconds before hedging, -1 if the endpoint has not enough
+     * samples yet
+     */
+    long delay(final LatencyTracker tracker) {
+        final long latency = tracker.percentile(this.percentile, this.minSamples);
+        if (latency < 0) {
+            return -1;
+        }
+        return Math.max(this.minDelay, latency / 1000000L);
+    }
+
+    public static class Builder {
+
+        private double percentile = 0.95;
+
+        private long minDelay = 10;
+
+        private int minSamples = 50;
+
+        private double budgetRatio = 0.1;
+
+        private long budgetReserve = 10;
+
+        private Builder() {
+        }
+
+        /**
+         * @param percentile Percentile of the endpoint's response times after which the request
+         *                   is hedged, between 0 and 1
+         */
+        public Builder percentile(final double percentile) {
+            if (percentile <= 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param minDelay Min time in milliseconds before a request is hedged
+         */
+        public Builder minDelay(final long minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * @param minSamples Number of responses an endpoint needs before its requests are
+         *                   hedged
+         */
+        public Builder minSamples(final int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param ratio   Fraction of the requests that can be hedged
+         * @param reserve Number of hedges available in bursts
+         */
+        public Builder budget(final double ratio, final long reserve) {
+            this.budgetRatio = ratio;
+            this.budgetReserve = reserve;
+            return this;
+        }
+
+        public HedgePolicy build() {
+            return new HedgePolicy(this);
+        }
+    }
+}
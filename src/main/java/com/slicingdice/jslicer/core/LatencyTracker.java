@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sliding window of the latest response times of an endpoint, used to pick the hedging delay
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+class LatencyTracker {
+
+    private static final int WINDOW = 1024;
+
+    /**
+     * The sorted copy of the window is rebuilt after this number of new samples
+     */
+    private static final int REFRESH_INTERVAL = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long[] samples = new long[WINDOW];
+
+    private long[] sorted = new long[0];
+
+    private int count;
+
+    private int next;
+
+    private int sinceRefresh;
+
+    /**
+     * @param latency A response time in nanoseconds
+     */
+    void record(final long latency) {
+        this.lock.lock();
+        try {
+            this.samples[this.next] = latency;
+            this.next = (this.next + 1) % WINDOW;
+            if (this.count < WINDOW) {
+                this.count++;
+            }
+            this.sinceRefresh++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 1
+     * @param minSamples The number of samples needed to trust the window
+     * @return the latency in nanoseconds at the percentile, -1 if there are not enough samples
+     */
+    long percentile(final double percentile, final int minSamples) {
+        this.lock.lock();
+        try {
+            if (this.count < minSamples || this.count == 0) {
+                return -1;
+            }
+            if (this.sinceRefresh >= REFRESH_INTERVAL || this.sorted.length == 0) {
+                this.sorted = Arrays.copyOf(this.samples, this.count);
+                Arrays.sort(this.sorted);
+                this.sinceRefresh = 0;
+            }
+            final int index = (int) Math.ceil(percentile * this.sorted.length) - 1;
+            return this.sorted[Math.max(0, Math.min(index, this.sorted.length - 1))];
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side token bucket pacing requests before they are sent, limited in requests and bytes
+ * per second. The rate adapts to the rate limit headers returned by the Slicing Dice API: when
+ * the API reports how many requests remain until the window resets, requests are spread over
+ * the rest of the window, and when it reports the limit was reached the bucket pauses until
+ * the reset.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class RateLimiter {
+
+    static final String LIMIT_REMAINING_HEADER = "X-RateLimit-Remaining";
+
+    static final String LIMIT_RESET_HEADER = "X-RateLimit-Reset";
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Reset values above this are epoch seconds instead of seconds until the reset
+     */
+    private static final long EPOCH_THRESHOLD = 1000000000L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Bucket requests;
+
+    private final Bucket bytes;
+
+    /**
+     * Rate asked by the API headers, valid until adaptiveUntil
+     */
+    private double adaptiveRate = Double.POSITIVE_INFINITY;
+
+    private long adaptiveUntil;
+
+    private long pausedUntil;
+
+    private RateLimiter(final Builder builder) {
+        final long now = System.nanoTime();
+        this.requests = new Bucket(builder.requestsPerSecond, builder.burstSeconds, now);
+        this.bytes = new Bucket(builder.bytesPerSecond, builder.burstSeconds, now);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Take the tokens for a request, the tokens are reserved even if they are not available yet
+     * so concurrent requests are queued one after the other
+     *
+     * @param size The size in bytes of the request body
+     * @return the time in nanoseconds the request must wait before being sent
+     */
+    long reserve(final int size) {
+        this.lock.lock();
+        try {
+            final long now = System.nanoTime();
+            final double rate = now < this.adaptiveUntil ?
+                    Math.min(this.requests.rate, this.adaptiveRate) : this.requests.rate;
+
+            long delay = Math.max(this.requests.take(1, rate, now),
+                    this.bytes.take(size, this.bytes.rate, now));
+            if (this.pausedUntil - now > delay) {
+                delay = this.pausedUntil - now;
+            }
+            return Math.max(delay, 0);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adapt the pace to the rate limit headers of an API response
+     */
+    void onResponse(final HttpHeaders headers) {
+        if (headers == null) {
+            return;
+        }
+        final Integer remaining = headers.getInt(LIMIT_REMAINING_HEADER);
+        final Integer reset = headers.getInt(LIMIT_RESET_HEADER);
+        if (remaining == null || reset == null) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long untilReset = reset > EPOCH_THRESHOLD ?
+                TimeUnit.MILLISECONDS.toNanos(reset * 1000L - System.currentTimeMillis()) :
+                reset * SECOND;
+        if (untilReset <= 0) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            if (remaining <= 0) {
+                this.pausedUntil = Math.max(this.pausedUntil, now + untilReset);
+            } else {
+                this.adaptiveRate = remaining * (double) SECOND / untilReset;
+                this.adaptiveUntil = now + untilReset;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop sending requests for a while after the API rejected one for its rate limit
+     *
+     * @param delay The time in milliseconds asked by the API, 0 if it didn't ask for any
+     */
+    void onRateLimited(final long delay) {
+        if (delay <= 0) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.pausedUntil = Math.max(this.pausedUntil,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * A token bucket allowed to go into debt, the debt is the time the next caller must wait
+     */
+    private static final class Bucket {
+        private final double rate;
+
+        private final double burstSeconds;
+
+        private double tokens;
+
+        private long updatedAt;
+
+        private Bucket(final double rate, final double burstSeconds, final long now) {
+            this.rate = rate;
+            this.burstSeconds = burstSeconds;
+            this.tokens = rate * burstSeconds;
+            this.updatedAt = now;
+        }
+
+        private long take(final double amount, final double currentRate, final long now) {
+            if (Double.isInfinite(currentRate)) {
+                return 0;
+            }
+            final double capacity = Math.max(currentRate * this.burstSeconds, 1);
+            this.tokens = Math.min(capacity,
+                    this.tokens + (now - this.updatedAt) * currentRate / SECOND);
+            this.updatedAt = now;
+            this.tokens -= amount;
+            return this.tokens >= 0 ? 0 : (long) (-this.tokens * SECOND / currentRate);
+        }
+    }
+
+    public static class Builder {
+
+        private double requestsPerSecond = Double.POSITIVE_INFINITY;
+
+        private double bytesPerSecond = Double.POSITIVE_INFINITY;
+
+        private double burstSeconds = 1;
+
+        private Builder() {
+        }
+
+        /**
+         * @param requestsPerSecond Max number of requests sent per second
+         */
+        public Builder requestsPerSecond(final double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond Max number of body bytes sent per second
+         */
+        public Builder bytesPerSecond(final double bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param burstSeconds How many seconds of unused rate can be accumulated and spent at once
+         */
+        public Builder burstSeconds(final double burstSeconds) {
+            this.burstSeconds = burstSeconds;
+            return this;
+        }
+
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
@@ -15,234 +15,984 @@
  */
 package com.slicingdice.jslicer.core;
 
+import com.slicingdice.jslicer.exceptions.api.InternalException;
 import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
+import com.slicingdice.jslicer.exceptions.client.CircuitOpenException;
+import com.slicingdice.jslicer.exceptions.client.ConcurrencyLimitException;
+import com.slicingdice.jslicer.utils.EndpointClass;
+import com.slicingdice.jslicer.utils.SqlStatements;
+import com.slicingdice.jslicer.utils.URLResources;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.asynchttpclient.AsyncHttpClient;
-import org.asynchttpclient.Dsl;
+import org.asynchttpclient.BoundRequestBuilder;
 import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Response;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.reactivestreams.Publisher;
 
 /**
- * A simple helper to make post requests with okhttp3
+ * A simple helper to make HTTP requests with a per-client AsyncHttpClient
  *
  * @author Simbiose Ventures
  * @version 0.2
  * @since 2016-08-10
  */
 public class Requester {
-    private static final AsyncHttpClient client = Dsl.asyncHttpClient();
+    private static final String POST = "POST";
 
-    private static final ExecutorService executor = Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors());
+    private static final String PUT = "PUT";
 
+    private static final String DELETE = "DELETE";
 
-    public static void close() throws IOException {
-        executor.shutdown();
-        client.close();
+    private static final String GET = "GET";
+
+    private static final String JSON = "application/json";
+
+    private static final String SQL = "application/sql";
+
+    private static final int RATE_LIMIT_ERROR = 1502;
+
+    private static final Logger logger = Logger.getLogger(Requester.class.getCanonicalName());
+
+    private static final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    private final AsyncHttpClient client;
+
+    private final Executor executor;
+
+    private final boolean ownsExecutor;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Compression compression;
+
+    private final int compressionThreshold;
+
+    private final Map<URLResources, RetryPolicy> retryPolicies;
+
+    private final Map<EndpointClass, RateLimiter> rateLimiters;
+
+    private final Map<URLResources, HedgePolicy> hedgePolicies;
+
+    private final Map<URLResources, LatencyTracker> latencies;
+
+    private final Map<URLResources, CircuitBreaker> circuitBreakers;
+
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+
+    public Requester() {
+        this(TransportConfig.defaults());
+    }
+
+    public Requester(final TransportConfig config) {
+        this.client = config.createClient();
+        this.executor = config.createCallbackExecutor();
+        this.ownsExecutor = config.getCallbackExecutor() == null;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "slicingdice-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compression = config.getRequestCompression();
+        this.compressionThreshold = config.getCompressionThreshold();
+
+        this.retryPolicies = new ConcurrentHashMap<>();
+        final RetryPolicy retryPolicy = RetryPolicy.defaults();
+        for (final URLResources endpoint : URLResources.values()) {
+            this.retryPolicies.put(endpoint, retryPolicy);
+        }
+        this.retryPolicies.put(URLResources.DELETE, RetryPolicy.NONE);
+        this.retryPolicies.put(URLResources.UPDATE, RetryPolicy.NONE);
+
+        this.rateLimiters = new ConcurrentHashMap<>();
+
+        this.hedgePolicies = new ConcurrentHashMap<>();
+        this.latencies = new EnumMap<>(URLResources.class);
+        for (final URLResources endpoint : URLResources.values()) {
+            if (endpoint.endpointClass == EndpointClass.QUERY) {
+                this.latencies.put(endpoint, new LatencyTracker());
+            }
+        }
+
+        this.circuitBreakers = new ConcurrentHashMap<>();
     }
 
     /**
-     * Makes a POST request
+     * Close this requester's HTTP client and executors, requests from other requesters are not
+     * affected
+     */
+    public void close() throws IOException {
+        this.scheduler.shutdownNow();
+        if (this.ownsExecutor && this.executor instanceof ExecutorService) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+        this.client.close();
+    }
+
+    /**
+     * Set the policy used to retry requests to an endpoint rejected by the API rate limit. All
+     * endpoints retry with {@link RetryPolicy#defaults()} except DELETE and UPDATE, which don't
+     * retry unless a policy is set.
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
+     * @param endpoint    The endpoint using the policy
+     * @param retryPolicy The policy, {@link RetryPolicy#NONE} to disable retries
      */
-    public static Future<Response> post(final String url, final String data, final String token,
-                                        final int timeout) {
-        return post(url, data, token, timeout, false);
+    public void setRetryPolicy(final URLResources endpoint, final RetryPolicy retryPolicy) {
+        this.retryPolicies.put(endpoint, retryPolicy);
     }
 
     /**
-     * Makes a POST request
+     * Pace the requests to a class of endpoints with a token bucket, requests are not paced
+     * unless a rate limiter is set.
+     *
+     * @param endpointClass The endpoints sharing the rate limiter
+     * @param rateLimiter   The rate limiter, null to stop pacing these endpoints
+     */
+    public void setRateLimiter(final EndpointClass endpointClass, final RateLimiter rateLimiter) {
+        if (rateLimiter == null) {
+            this.rateLimiters.remove(endpointClass);
+        } else {
+            this.rateLimiters.put(endpointClass, rateLimiter);
+        }
+    }
+
+    /**
+     * Hedge the requests to a read query endpoint, requests are not hedged unless a policy is
+     * set. Only endpoints of the {@link EndpointClass#QUERY} class can be hedged, inserts,
+     * updates, deletes and management requests are always sent once, and so are the QUERY_SQL
+     * statements other than SELECT and WITH.
+     *
+     * @param endpoint    The read query endpoint
+     * @param hedgePolicy The policy, null to stop hedging the endpoint
+     */
+    public void setHedgePolicy(final URLResources endpoint, final HedgePolicy hedgePolicy) {
+        if (endpoint.endpointClass != EndpointClass.QUERY) {
+            throw new IllegalArgumentException("SlicingDice: only read queries can be hedged.");
+        }
+        if (hedgePolicy == null) {
+            this.hedgePolicies.remove(endpoint);
+        } else {
+            this.hedgePolicies.put(endpoint, hedgePolicy);
+        }
+    }
+
+    /**
+     * @return the hedge policy of a request, SQL statements are only hedged when they only read
+     * data since sending a write twice would apply it twice
+     */
+    private HedgePolicy hedgePolicy(final URLResources endpoint, final String data) {
+        if (endpoint == URLResources.QUERY_SQL && !SqlStatements.isRead(data)) {
+            return null;
+        }
+        return this.hedgePolicies.get(endpoint);
+    }
+
+    /**
+     * Guard an endpoint with a circuit breaker, requests to an endpoint whose breaker is open
+     * fail immediately with a CircuitOpenException. Endpoints have no breaker unless one is
+     * set, a breaker should not be shared between endpoints.
+     *
+     * @param endpoint       The endpoint guarded by the breaker
+     * @param circuitBreaker The breaker, null to remove the endpoint's breaker
+     */
+    public void setCircuitBreaker(final URLResources endpoint,
+                                  final CircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null) {
+            this.circuitBreakers.remove(endpoint);
+        } else {
+            this.circuitBreakers.put(endpoint, circuitBreaker);
+        }
+    }
+
+    /**
+     * Limit the number of requests in flight, requests are not limited unless a concurrency
+     * limiter is set. Retries take a new slot for each attempt.
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
+     * @param concurrencyLimiter The limiter, null to stop limiting requests
      */
-    public static Future<Response> post(final String url, final String data, final String token,
-                                        final int timeout, final boolean sql) {
-        final String contentType = sql ? "application/sql" : "application/json";
-        return client.preparePost(url)
-                .setBody(data)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", contentType)
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    public void setConcurrencyLimiter(final ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     /**
      * Makes a POST request
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
-     * @param handler A handler that will call onError or onSuccess when the request finishes
+     * @param endpoint The requested endpoint, QUERY_SQL bodies are sent as SQL
+     * @param url      A url String to make request
+     * @param data     A JSON to send in request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
      */
-    public static void post(final String url, final String data, final String token,
-                            final int timeout, final HandlerResponse handler) {
-        post(url, data, token, timeout, handler, false);
+    public CompletableFuture<Response> post(final URLResources endpoint, final String url,
+                                            final String data, final String token,
+                                            final int timeout) {
+        return this.execute(POST, endpoint, url, encode(data), token, timeout,
+                this.hedgePolicy(endpoint, data));
+    }
+
+    /**
+     * Makes a POST request with an already serialized body, the buffer is sent as is and must
+     * not be modified until the request finishes
+     *
+     * @param endpoint The requested endpoint, QUERY_SQL bodies are sent as SQL
+     * @param url      A url String to make request
+     * @param data     A buffer with the UTF-8 encoded body, from its position to its limit
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     */
+    public CompletableFuture<Response> post(final URLResources endpoint, final String url,
+                                            final ByteBuffer data, final String token,
+                                            final int timeout) {
+        return this.execute(POST, endpoint, url, Unpooled.wrappedBuffer(data.duplicate()), token,
+                timeout);
     }
 
     /**
      * Makes a POST request
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
-     * @param handler A handler that will call onError or onSuccess when the request finishes
+     * @param endpoint The requested endpoint, QUERY_SQL bodies are sent as SQL
+     * @param url      A url String to make request
+     * @param data     A JSON to send in request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
      */
-    public static void post(final String url, final String data, final String token,
-                            final int timeout, final HandlerResponse handler, final boolean sql) {
-        final String contentType = sql ? "application/sql" : "application/json";
-        final ListenableFuture<Response> whenExecute = client.preparePost(url)
-                .setBody(data)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", contentType)
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    public void post(final URLResources endpoint, final String url, final String data,
+                     final String token, final int timeout, final HandlerResponse handler) {
+        addListener(handler, this.execute(POST, endpoint, url, encode(data), token, timeout,
+                this.hedgePolicy(endpoint, data)));
+    }
 
-        addListener(handler, whenExecute);
+    /**
+     * Makes a POST request with an already serialized body, the buffer is sent as is and must
+     * not be modified until the request finishes
+     *
+     * @param endpoint The requested endpoint, QUERY_SQL bodies are sent as SQL
+     * @param url      A url String to make request
+     * @param data     A buffer with the UTF-8 encoded body, from its position to its limit
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
+     */
+    public void post(final URLResources endpoint, final String url, final ByteBuffer data,
+                     final String token, final int timeout, final HandlerResponse handler) {
+        addListener(handler, this.execute(POST, endpoint, url,
+                Unpooled.wrappedBuffer(data.duplicate()), token, timeout));
     }
 
     /**
      * Makes a PUT request
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param data     A JSON to send in request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
      */
-    public static Future<Response> put(final String url, final String data, final String token,
-                                       final int timeout) {
-        return client.preparePut(url)
-                .setBody(data)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    public CompletableFuture<Response> put(final URLResources endpoint, final String url,
+                                           final String data, final String token,
+                                           final int timeout) {
+        return this.execute(PUT, endpoint, url, encode(data), token, timeout);
     }
 
     /**
      * Makes a PUT request
      *
-     * @param url     A url String to make request
-     * @param data    A JSON to send in request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
-     * @param handler A handler that will call onError or onSuccess when the request finishes
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param data     A JSON to send in request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
      */
-    public static void put(final String url, final String data, final String token,
-                           final int timeout, final HandlerResponse handler) {
-        final ListenableFuture<Response> whenExecute = client.preparePut(url)
-                .setBody(data)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
-
-        addListener(handler, whenExecute);
+    public void put(final URLResources endpoint, final String url, final String data,
+                    final String token, final int timeout, final HandlerResponse handler) {
+        addListener(handler, this.execute(PUT, endpoint, url, encode(data), token, timeout));
     }
 
     /**
      * Makes a DELETE request
      *
-     * @param url     A url String to make request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
      */
-    public static Future<Response> delete(final String url, final String token, final int timeout) {
-        return client.prepareDelete(url)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    public CompletableFuture<Response> delete(final URLResources endpoint, final String url,
+                                              final String token, final int timeout) {
+        return this.execute(DELETE, endpoint, url, null, token, timeout);
     }
 
     /**
      * Makes a DELETE request
      *
-     * @param url     A url String to make request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
-     * @param handler A handler that will call onError or onSuccess when the request finishes
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
      */
-    public static void delete(final String url, final String token, final int timeout,
-                              final HandlerResponse handler) {
-        final ListenableFuture<Response> whenExecute = client.prepareDelete(url)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
-
-        addListener(handler, whenExecute);
+    public void delete(final URLResources endpoint, final String url, final String token,
+                       final int timeout, final HandlerResponse handler) {
+        addListener(handler, this.execute(DELETE, endpoint, url, null, token, timeout));
     }
 
     /**
      * Makes a GET request
      *
-     * @param url     A url String to make request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
      */
-    public static Future<Response> get(final String url, final String token, final int timeout) {
-        return client.prepareGet(url)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    public CompletableFuture<Response> get(final URLResources endpoint, final String url,
+                                           final String token, final int timeout) {
+        return this.execute(GET, endpoint, url, null, token, timeout);
     }
 
     /**
      * Makes a GET request
      *
-     * @param url     A url String to make request
-     * @param token   A token to access URL
-     * @param timeout A Integer with time max to API response
-     * @param handler A handler that will call onError or onSuccess when the request finishes
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @param handler  A handler that will call onError or onSuccess when the request finishes
+     */
+    public void get(final URLResources endpoint, final String url, final String token,
+                    final int timeout, final HandlerResponse handler) {
+        addListener(handler, this.execute(GET, endpoint, url, null, token, timeout));
+    }
+
+    /**
+     * Makes a POST request whose response rows are streamed to a subscriber as they are read.
+     * The request is sent once per subscription and is neither retried nor hedged, the
+     * endpoint's circuit breaker still applies.
+     *
+     * @param endpoint The requested data extraction endpoint
+     * @param url      A url String to make request
+     * @param data     A JSON to send in request
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     * @return a publisher of the objects of the 'data' array of the response
+     */
+    public Publisher<JSONObject> stream(final URLResources endpoint, final String url,
+                                        final String data, final String token,
+                                        final int timeout) {
+        return new StreamedResultPublisher(handler -> {
+            final CircuitBreaker circuitBreaker = this.circuitBreakers.get(endpoint);
+            if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                throw new CircuitOpenException("SlicingDice: the circuit breaker of " +
+                        endpoint + " is open, the request was not sent.");
+            }
+
+            final ByteBuf encoded = encode(data);
+            final ByteBuf payload = this.compress(encoded);
+            final Call call = new Call(POST, endpoint, url, payload, payload != encoded, token,
+                    timeout, RetryPolicy.NONE, null, null);
+            final ListenableFuture<Void> whenExecute;
+            try {
+                whenExecute = call.prepare(this.client).execute(handler);
+            } catch (final RuntimeException exception) {
+                call.release();
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResult(0, true);
+                }
+                throw exception;
+            }
+
+            whenExecute.addListener(() -> {
+                call.release();
+                if (circuitBreaker == null) {
+                    return;
+                }
+                // the stream duration depends on the subscriber, only failures are recorded
+                try {
+                    whenExecute.get();
+                    circuitBreaker.onResult(0, false);
+                } catch (final CancellationException exception) {
+                    circuitBreaker.onIgnored();
+                } catch (final Exception exception) {
+                    circuitBreaker.onResult(0, true);
+                }
+            }, Runnable::run);
+            return whenExecute;
+        });
+    }
+
+    /**
+     * Send the request, retrying it while the endpoint's retry policy allows. The body buffer
+     * is released once the request finishes.
+     *
+     * @param method   The HTTP method
+     * @param endpoint The requested endpoint
+     * @param url      A url String to make request
+     * @param body     The body to send in request, null for requests without body
+     * @param token    A token to access URL
+     * @param timeout  A Integer with time max to API response
+     */
+    private CompletableFuture<Response> execute(final String method, final URLResources endpoint,
+                                                final String url, final ByteBuf body,
+                                                final String token, final int timeout) {
+        // serialized SQL bodies are not inspected, they may be writes
+        final HedgePolicy hedgePolicy = endpoint == URLResources.QUERY_SQL ? null :
+                this.hedgePolicies.get(endpoint);
+        return this.execute(method, endpoint, url, body, token, timeout, hedgePolicy);
+    }
+
+    /**
+     * Send the request, retrying it while the endpoint's retry policy allows. The body buffer
+     * is released once the request finishes.
+     *
+     * @param hedgePolicy The policy hedging the request, null to send it once
+     */
+    private CompletableFuture<Response> execute(final String method, final URLResources endpoint,
+                                                final String url, final ByteBuf body,
+                                                final String token, final int timeout,
+                                                final HedgePolicy hedgePolicy) {
+        final CircuitBreaker circuitBreaker = this.circuitBreakers.get(endpoint);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            if (body != null) {
+                body.release();
+            }
+            final CompletableFuture<Response> open = new CompletableFuture<>();
+            open.completeExceptionally(new CircuitOpenException("SlicingDice: the circuit " +
+                    "breaker of " + endpoint + " is open, the request was not sent."));
+            return open;
+        }
+
+        final ByteBuf payload = body == null ? null : this.compress(body);
+        final Call call = new Call(method, endpoint, url, payload, payload != body, token,
+                timeout, this.retryPolicies.get(endpoint), hedgePolicy,
+                this.concurrencyLimiter);
+
+        call.result.whenComplete((response, error) -> {
+            call.finish();
+            if (circuitBreaker == null) {
+                return;
+            }
+            if (error instanceof CancellationException ||
+                    error instanceof ConcurrencyLimitException) {
+                circuitBreaker.onIgnored();
+            } else {
+                circuitBreaker.onResult(call.latency,
+                        error != null || response.getStatusCode() >= 500);
+            }
+        });
+        call.retryPolicy.onRequest();
+        if (call.hedgePolicy != null) {
+            call.hedgePolicy.onRequest();
+        }
+        this.pace(call);
+        return call.result;
+    }
+
+    /**
+     * Wait for the rate limiter of the endpoint before sending an attempt
+     */
+    private void pace(final Call call) {
+        final RateLimiter rateLimiter = this.rateLimiters.get(call.endpoint.endpointClass);
+        final long delay = rateLimiter == null ? 0 :
+                rateLimiter.reserve(call.body == null ? 0 : call.body.readableBytes());
+
+        if (delay > 0) {
+            this.schedule(() -> this.acquire(call), TimeUnit.NANOSECONDS.toMillis(delay) + 1,
+                    call);
+        } else {
+            this.acquire(call);
+        }
+    }
+
+    /**
+     * Wait for a slot of the concurrency limiter before sending an attempt
+     */
+    private void acquire(final Call call) {
+        final ConcurrencyLimiter limiter = call.concurrencyLimiter;
+        if (limiter == null) {
+            this.send(call);
+        } else {
+            limiter.acquire(() -> this.send(call), call.result::completeExceptionally);
+        }
+    }
+
+    /**
+     * Make one attempt of a call, each attempt holds its own reference to the body so it is
+     * only released when no attempt is writing it
+     */
+    private void send(final Call call) {
+        final ConcurrencyLimiter limiter = call.concurrencyLimiter;
+        // the reference is taken before checking the result, a call finishing meanwhile then
+        // leaves the body to this attempt instead of freeing it
+        final boolean retained = call.retainBody();
+        if (!retained || call.result.isDone()) {
+            if (retained) {
+                call.release();
+            }
+            if (limiter != null) {
+                limiter.release();
+            }
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final ListenableFuture<Response> whenExecute;
+        if (call.outstanding.incrementAndGet() == 1) {
+            // a first attempt or a retry, hedges keep the start of the attempt they duplicate
+            call.sent = start;
+        }
+        try {
+            whenExecute = call.prepare(this.client).execute();
+        } catch (final RuntimeException exception) {
+            call.release();
+            if (limiter != null) {
+                limiter.release();
+            }
+            if (call.outstanding.decrementAndGet() == 0) {
+                call.result.completeExceptionally(exception);
+            }
+            return;
+        }
+        call.attempts++;
+        call.inFlight.add(whenExecute);
+        if (call.result.isDone()) {
+            whenExecute.cancel(true);
+        }
+
+        this.hedge(call);
+        whenExecute.addListener(() -> this.onAttempt(call, whenExecute, start), Runnable::run);
+    }
+
+    /**
+     * Schedule a duplicate of the first attempt of a hedged call, sent if no response arrived
+     * after the policy's percentile of the endpoint latency
+     */
+    private void hedge(final Call call) {
+        final HedgePolicy hedgePolicy = call.hedgePolicy;
+        if (hedgePolicy == null || call.hedged) {
+            return;
+        }
+        call.hedged = true;
+
+        final long delay = hedgePolicy.delay(this.latencies.get(call.endpoint));
+        if (delay < 0) {
+            return;
+        }
+        this.schedule(() -> {
+            if (!call.result.isDone() && call.outstanding.get() > 0 && hedgePolicy.tryHedge()) {
+                call.hedgeDelay = TimeUnit.MILLISECONDS.toNanos(delay);
+                this.pace(call);
+            }
+        }, delay, call);
+    }
+
+    /**
+     * Handle the end of an attempt. The first successful response completes the call, a failed
+     * attempt only completes it when no other attempt is in flight.
+     */
+    private void onAttempt(final Call call, final ListenableFuture<Response> attempt,
+                           final long start) {
+        call.release();
+        call.inFlight.remove(attempt);
+        final boolean last = call.outstanding.decrementAndGet() == 0;
+        final ConcurrencyLimiter limiter = call.concurrencyLimiter;
+        final long latency = System.nanoTime() - start;
+        call.latency = latency;
+
+        final Response response;
+        try {
+            response = attempt.get();
+        } catch (final Exception exception) {
+            final Throwable cause = exception.getCause() != null ?
+                    exception.getCause() : exception;
+            if (limiter != null) {
+                if (attempt.isCancelled()) {
+                    limiter.release();
+                } else {
+                    limiter.release(latency, cause instanceof TimeoutException);
+                }
+            }
+            if (last) {
+                call.result.completeExceptionally(cause);
+            }
+            return;
+        }
+
+        final RateLimiter rateLimiter = this.rateLimiters.get(call.endpoint.endpointClass);
+        final boolean rateLimited = isRateLimited(response);
+        final boolean failed = rateLimited || response.getStatusCode() >= 500;
+        if (limiter != null) {
+            limiter.release(latency, failed);
+        }
+        if (rateLimiter != null) {
+            rateLimiter.onResponse(response.getHeaders());
+            if (rateLimited) {
+                rateLimiter.onRateLimited(retryAfter(response));
+            }
+        }
+
+        if (!failed) {
+            if (call.hedgePolicy != null) {
+                // the time to the first response of the call, so an attempt beaten by a hedge
+                // is counted at least at the hedge delay instead of being left out
+                this.latencies.get(call.endpoint).record(
+                        Math.max(System.nanoTime() - call.sent, call.hedgeDelay));
+            }
+            call.result.complete(response);
+            return;
+        }
+        if (!last) {
+            return;
+        }
+
+        if (rateLimited && call.retryPolicy.tryRetry(call.attempts)) {
+            final long delay = Math.max(call.retryPolicy.delay(call.attempts),
+                    retryAfter(response));
+            this.schedule(() -> this.pace(call), delay, call);
+            return;
+        }
+        call.result.complete(response);
+    }
+
+    /**
+     * Run a task after a delay, failing the call if the requester was closed
+     */
+    private void schedule(final Runnable task, final long delay, final Call call) {
+        try {
+            this.scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (final RuntimeException exception) {
+            call.result.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Check if the request was rejected by the Slicing Dice API rate limit
+     */
+    private static boolean isRateLimited(final Response response) {
+        if (response.getStatusCode() == 429) {
+            return true;
+        }
+        if (response.getStatusCode() < 400) {
+            return false;
+        }
+
+        final JSONObject data;
+        try {
+            data = new JSONObject(response.getResponseBody());
+        } catch (final JSONException exception) {
+            return false;
+        }
+
+        final Object errors = data.opt("errors");
+        if (errors instanceof JSONArray) {
+            for (final Object error : (JSONArray) errors) {
+                if (error instanceof JSONObject &&
+                        ((JSONObject) error).optInt("code") == RATE_LIMIT_ERROR) {
+                    return true;
+                }
+            }
+        } else if (errors instanceof JSONObject) {
+            return ((JSONObject) errors).optInt("code") == RATE_LIMIT_ERROR;
+        }
+        return false;
+    }
+
+    /**
+     * @return the delay in milliseconds asked by the Retry-After header, 0 if absent
+     */
+    private static long retryAfter(final Response response) {
+        final String retryAfter = response.getHeader("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (final NumberFormatException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Encode the body as UTF-8 straight into a pooled direct buffer, skipping the intermediate
+     * byte array
+     */
+    private static ByteBuf encode(final String data) {
+        return ByteBufUtil.writeUtf8(allocator, data);
+    }
+
+    /**
+     * Compress the body when it reaches the configured threshold, the body is released if a
+     * compressed copy is returned
+     *
+     * @param body The encoded body
+     * @return the body itself or a new buffer with its compressed content
      */
-    public static void get(final String url, final String token, final int timeout,
-                           final HandlerResponse handler) {
-        final ListenableFuture<Response> whenExecute = client.prepareGet(url)
-                .setHeader("Authorization", token)
-                .setHeader("Content-Type", "application/json")
-                .setReadTimeout(timeout * 1000)
-                .setRequestTimeout(timeout * 1000)
-                .execute();
+    private ByteBuf compress(final ByteBuf body) {
+        final int length = body.readableBytes();
+        if (this.compression == Compression.NONE || length < this.compressionThreshold) {
+            return body;
+        }
 
-        addListener(handler, whenExecute);
+        final ByteBuf compressed = allocator.directBuffer(Math.max(length / 4, 64));
+        try (final OutputStream out = this.compression.wrap(new ByteBufOutputStream(compressed))) {
+            body.readBytes(out, length);
+        } catch (final IOException exception) {
+            compressed.release();
+            throw new InternalException("SlicingDice: Error while compressing request body.",
+                    exception);
+        } finally {
+            body.release();
+        }
+        return compressed;
     }
 
-    private static void addListener(final HandlerResponse handler,
-                                    final ListenableFuture<Response> whenExecute) {
-        whenExecute.addListener(() -> {
+    private void addListener(final HandlerResponse handler,
+                             final CompletableFuture<Response> whenExecute) {
+        whenExecute.whenComplete((response, error) -> this.dispatch(() -> {
             try {
-                final Response response = whenExecute.get();
+                if (error != null) {
+                    handler.onFailure(error);
+                } else {
+                    handler.checkRequest(response.getResponseBody(), response.getHeaders(),
+                            response.getStatusCode());
+                }
+            } catch (final Throwable e) {
+                logger.log(Level.FINE, "An error occurred while requesting SlicingDice", e);
+            }
+        }, rejected -> {
+            logger.warning("SlicingDice: the callback queue is full, a HandlerResponse " +
+                    "callback failed on the calling thread.");
+            try {
+                handler.onFailure(rejected);
+            } catch (final Throwable e) {
+                logger.log(Level.FINE, "An error occurred while requesting SlicingDice", e);
+            }
+        }));
+    }
 
-                handler.checkRequest(response.getResponseBody(), response.getHeaders(),
-                        response.getStatusCode());
-            } catch (final Exception e) {
-                throw new SlicingDiceException("An error occurred while requesting SlicingDice");
+    /**
+     * Run a callback on the callback executor
+     *
+     * @param task       The callback
+     * @param onRejected Called on the calling thread if the executor rejects the callback
+     */
+    private void dispatch(final Runnable task,
+                          final Consumer<RejectedExecutionException> onRejected) {
+        try {
+            this.executor.execute(task);
+        } catch (final RejectedExecutionException exception) {
+            onRejected.accept(exception);
+        }
+    }
+
+    /**
+     * Parse the response of a request on the callback executor
+     *
+     * @param whenExecute The request
+     * @return a future completed with the parsed response, or exceptionally with the
+     * SlicingDiceException matching the API error. Cancelling it cancels the request.
+     */
+    public CompletableFuture<JSONObject> toJson(final CompletableFuture<Response> whenExecute) {
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        result.whenComplete((data, error) -> {
+            if (result.isCancelled()) {
+                whenExecute.cancel(true);
+            }
+        });
+        whenExecute.whenComplete((response, error) -> this.dispatch(() -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof RuntimeException ? error :
+                        new SlicingDiceException("SlicingDice: Error while requesting " +
+                                "SlicingDice.", error));
+                return;
             }
-        }, executor);
+            try {
+                result.complete(ResponseParser.toJson(response));
+            } catch (final RuntimeException exception) {
+                result.completeExceptionally(exception);
+            }
+        }, result::completeExceptionally));
+        return result;
     }
 
     public static JSONObject responseToJson(final Response response) {
         return new JSONObject(response.getResponseBody());
     }
+
+    /**
+     * A request and its attempts
+     */
+    private final class Call {
+        private final String method;
+
+        private final URLResources endpoint;
+
+        private final String url;
+
+        private final ByteBuf body;
+
+        private final boolean compressed;
+
+        private final String token;
+
+        private final int timeout;
+
+        private final RetryPolicy retryPolicy;
+
+        private final HedgePolicy hedgePolicy;
+
+        private final ConcurrencyLimiter concurrencyLimiter;
+
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        private final Set<ListenableFuture<Response>> inFlight = ConcurrentHashMap.newKeySet();
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /**
+         * Guards the release of the call's own reference to the body against new attempts
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private boolean finished;
+
+        private volatile int attempts;
+
+        private volatile boolean hedged;
+
+        /**
+         * Latency in nanoseconds of the latest finished attempt
+         */
+        private volatile long latency;
+
+        /**
+         * Time in nanoseconds the first attempt of the call, or of its latest retry, was sent
+         */
+        private volatile long sent;
+
+        /**
+         * Delay in nanoseconds after which the call was hedged, 0 if it was not hedged
+         */
+        private volatile long hedgeDelay;
+
+        private Call(final String method, final URLResources endpoint, final String url,
+                     final ByteBuf body, final boolean compressed, final String token,
+                     final int timeout, final RetryPolicy retryPolicy,
+                     final HedgePolicy hedgePolicy, final ConcurrencyLimiter concurrencyLimiter) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.url = url;
+            this.body = body;
+            this.compressed = compressed;
+            this.token = token;
+            this.timeout = timeout;
+            this.retryPolicy = retryPolicy;
+            this.hedgePolicy = hedgePolicy;
+            this.concurrencyLimiter = concurrencyLimiter;
+        }
+
+        /**
+         * Build the HTTP request for a new attempt
+         */
+        private BoundRequestBuilder prepare(final AsyncHttpClient client) {
+            final BoundRequestBuilder request;
+            switch (this.method) {
+                case POST:
+                    request = client.preparePost(this.url);
+                    break;
+                case PUT:
+                    request = client.preparePut(this.url);
+                    break;
+                case DELETE:
+                    request = client.prepareDelete(this.url);
+                    break;
+                default:
+                    request = client.prepareGet(this.url);
+            }
+
+            request.setHeader("Authorization", this.token)
+                    .setHeader("Content-Type",
+                            this.endpoint == URLResources.QUERY_SQL ? SQL : JSON)
+                    .setReadTimeout(this.timeout * 1000)
+                    .setRequestTimeout(this.timeout * 1000);
+
+            if (this.body != null) {
+                request.setBody(this.body.nioBuffer());
+                if (this.compressed) {
+                    request.setHeader("Content-Encoding", compression.encoding);
+                }
+            }
+            return request;
+        }
+
+        /**
+         * Release the call resources, aborting the attempts still in flight when the result was
+         * cancelled or won by another attempt
+         */
+        private void finish() {
+            for (final ListenableFuture<Response> attempt : this.inFlight) {
+                attempt.cancel(true);
+            }
+            this.lock.lock();
+            try {
+                this.finished = true;
+                this.release();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Take a reference to the body for a new attempt
+         *
+         * @return false if the call already finished and released its own reference
+         */
+        private boolean retainBody() {
+            this.lock.lock();
+            try {
+                if (this.finished) {
+                    return false;
+                }
+                if (this.body != null) {
+                    this.body.retain();
+                }
+                return true;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void release() {
+            if (this.body != null) {
+                this.body.release();
+            }
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import com.slicingdice.jslicer.exceptions.DemoUnavailableException;
+import com.slicingdice.jslicer.exceptions.IndexColumnsLimitException;
+import com.slicingdice.jslicer.exceptions.IndexEntitiesLimitException;
+import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
+import com.slicingdice.jslicer.exceptions.RequestRateLimitException;
+import com.slicingdice.jslicer.exceptions.api.InternalException;
+import com.slicingdice.jslicer.exceptions.api.SDHttpError;
+import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
+import java.util.logging.Logger;
+import org.asynchttpclient.Response;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Turn Slicing Dice API responses into JSON results or the matching SlicingDiceException
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public final class ResponseParser {
+
+    private static final Logger logger = Logger.getLogger(ResponseParser.class.getCanonicalName());
+
+    private ResponseParser() {
+    }
+
+    /**
+     * Parse a response body
+     *
+     * @param result The response body
+     * @return the parsed body
+     * @throws InternalException if the body is not a JSON object
+     */
+    public static JSONObject parse(final String result) {
+        try {
+            return new JSONObject(result);
+        } catch (final JSONException exception) {
+            logger.severe(String.format("Couldn't parse JSON '%s'", result));
+            throw new InternalException("SlicingDice: Error while parsing JSON.", exception);
+        }
+    }
+
+    /**
+     * Parse a response, raising the API errors it contains
+     *
+     * @param response The API response
+     * @return the parsed body of a successful response
+     * @throws SlicingDiceException the subclass matching the first API error, carrying the HTTP
+     *                              status of the response
+     */
+    public static JSONObject toJson(final Response response) {
+        final int statusCode = response.getStatusCode();
+        final JSONObject data;
+        try {
+            data = parse(response.getResponseBody());
+        } catch (final InternalException exception) {
+            throw exception.setStatusCode(statusCode);
+        }
+        final JSONObject error = firstError(data);
+        if (error != null) {
+            throw toException(error).setStatusCode(statusCode);
+        }
+        if (statusCode >= 400) {
+            throw new SDHttpError("SlicingDice: request failed with HTTP status " +
+                    statusCode + ".").setStatusCode(statusCode);
+        }
+        return data;
+    }
+
+    /**
+     * @param data A parsed response body
+     * @return the first entry of the 'errors' key, null if the response has no error
+     */
+    public static JSONObject firstError(final JSONObject data) {
+        final Object errors = data.opt("errors");
+        if (errors instanceof JSONArray) {
+            final Object error = ((JSONArray) errors).opt(0);
+            return error instanceof JSONObject ? (JSONObject) error : null;
+        }
+        return errors instanceof JSONObject ? (JSONObject) errors : null;
+    }
+
+    /**
+     * Map a Slicing Dice API error to its exception
+     *
+     * @param error A JSONObject with values from key 'errors'
+     */
+    public static SlicingDiceException toException(final JSONObject error) {
+        switch (error.optInt("code")) {
+            case 2:
+                return new DemoUnavailableException(error);
+            case 1502:
+                return new RequestRateLimitException(error);
+            case 1507:
+                return new RequestBodySizeExceededException(error);
+            case 2012:
+                return new IndexEntitiesLimitException(error);
+            case 2013:
+                return new IndexColumnsLimitException(error);
+            default:
+                return new SlicingDiceException(error);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry policy for requests rejected by the Slicing Dice API rate limit, delays use
+ * exponential backoff with full jitter and retries are bounded by a budget relative to the
+ * number of requests made with the policy.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class RetryPolicy {
+
+    /**
+     * Policy that never retries
+     */
+    public static final RetryPolicy NONE = builder().maxAttempts(1).build();
+
+    /**
+     * Budget tokens are stored in millionths to keep fractional deposits in an AtomicLong
+     */
+    private static final long TOKEN = 1000000L;
+
+    private final int maxAttempts;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private final long budgetDeposit;
+
+    private final long budgetReserve;
+
+    private final AtomicLong budget;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelay = builder.baseDelay;
+        this.maxDelay = builder.maxDelay;
+        this.budgetDeposit = (long) (builder.budgetRatio * TOKEN);
+        this.budgetReserve = builder.budgetReserve * TOKEN;
+        this.budget = new AtomicLong(this.budgetReserve);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a policy with 5 attempts, 100ms base delay, 10s max delay and a budget of 20%
+     */
+    public static RetryPolicy defaults() {
+        return builder().build();
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Record a new request, each request adds its share to the retry budget
+     */
+    void onRequest() {
+        if (this.maxAttempts <= 1) {
+            return;
+        }
+        long current;
+        do {
+            current = this.budget.get();
+            if (current >= this.budgetReserve) {
+                return;
+            }
+        } while (!this.budget.compareAndSet(current,
+                Math.min(this.budgetReserve, current + this.budgetDeposit)));
+    }
+
+    /**
+     * Check if a request can be retried and take a token from the budget if it can
+     *
+     * @param attempt The number of attempts already made
+     * @return true if the request should be retried
+     */
+    boolean tryRetry(final int attempt) {
+        if (attempt >= this.maxAttempts) {
+            return false;
+        }
+        long current;
+        do {
+            current = this.budget.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!this.budget.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * Compute the delay before the next attempt using full jitter
+     *
+     * @param attempt The number of attempts already made
+     * @return the delay in milliseconds
+     */
+    long delay(final int attempt) {
+        final int shift = Math.min(attempt - 1, 30);
+        final long ceiling = Math.min(this.maxDelay, this.baseDelay << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = 5;
+
+        private long baseDelay = 100;
+
+        private long maxDelay = 10000;
+
+        private double budgetRatio = 0.2;
+
+        private long budgetReserve = 100;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts Max number of attempts including the first request
+         */
+        public Builder maxAttempts(final int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param baseDelay Delay ceiling in milliseconds of the first retry, doubled on each
+         *                  attempt
+         */
+        public Builder baseDelay(final long baseDelay) {
+            this.baseDelay = baseDelay;
+            return this;
+        }
+
+        /**
+         * @param maxDelay Max delay in milliseconds between two attempts
+         */
+        public Builder maxDelay(final long maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * @param ratio   Fraction of the requests that can be retried, 0.2 allows one retry for
+         *                every five requests
+         * @param reserve Number of retries available in bursts and before enough requests were
+         *                made to earn them
+         */
+        public Builder budget(final double ratio, final long reserve) {
+            this.budgetRatio = ratio;
+            this.budgetReserve = reserve;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import com.slicingdice.jslicer.exceptions.api.SDHttpError;
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.handler.StreamedAsyncHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Publisher of the rows of a data extraction response. The request is sent when a subscriber
+ * subscribes and each row is emitted as soon as it is read. Body chunks are only requested
+ * from the connection when the subscriber has demand left and the parsed rows were delivered,
+ * so a slow subscriber pauses the network reads instead of buffering the response.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+class StreamedResultPublisher implements Publisher<JSONObject> {
+
+    private final Function<StreamedAsyncHandler<Void>, ListenableFuture<Void>> request;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param request Sends the request with the given handler
+     */
+    StreamedResultPublisher(
+            final Function<StreamedAsyncHandler<Void>, ListenableFuture<Void>> request) {
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super JSONObject> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (!this.subscribed.compareAndSet(false, true)) {
+            subscription.fail(new IllegalStateException("SlicingDice: a result stream can only " +
+                    "be subscribed once."));
+            return;
+        }
+        subscription.start();
+    }
+
+    /**
+     * Bridge between the body parts of the HTTP response and the subscriber, all signals to
+     * the subscriber are serialized by the drain loop
+     */
+    private final class RowSubscription implements Subscription, StreamedAsyncHandler<Void>,
+            Subscriber<HttpResponseBodyPart> {
+
+        private final Subscriber<? super JSONObject> subscriber;
+
+        private final Queue<JSONObject> rows = new ConcurrentLinkedQueue<>();
+
+        private final DataArrayParser parser = new DataArrayParser(this.rows::add);
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile Subscription body;
+
+        private volatile ListenableFuture<Void> inFlight;
+
+        private volatile boolean bodyRequested;
+
+        private volatile boolean done;
+
+        private volatile Throwable error;
+
+        private volatile boolean cancelled;
+
+        private volatile boolean terminated;
+
+        private volatile int statusCode;
+
+        private RowSubscription(final Subscriber<? super JSONObject> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            try {
+                this.inFlight = StreamedResultPublisher.this.request.apply(this);
+            } catch (final RuntimeException exception) {
+                this.fail(exception);
+                return;
+            }
+            if (this.cancelled || this.done) {
+                this.abort();
+            }
+        }
+
+        private void fail(final Throwable throwable) {
+            if (this.error == null) {
+                this.error = throwable;
+            }
+            this.done = true;
+            this.abort();
+            this.drain();
+        }
+
+        /**
+         * Stop reading the response and close the request
+         */
+        private void abort() {
+            final Subscription body = this.body;
+            if (body != null) {
+                body.cancel();
+            }
+            final ListenableFuture<Void> inFlight = this.inFlight;
+            if (inFlight != null) {
+                inFlight.cancel(true);
+            }
+        }
+
+        // Subscription
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                this.fail(new IllegalArgumentException("SlicingDice: request must be positive, " +
+                        "got " + n + "."));
+                return;
+            }
+            long current;
+            do {
+                current = this.demand.get();
+                if (current == Long.MAX_VALUE) {
+                    break;
+                }
+            } while (!this.demand.compareAndSet(current,
+                    current + n < 0 ? Long.MAX_VALUE : current + n));
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            this.abort();
+        }
+
+        // StreamedAsyncHandler
+
+        @Override
+        public State onStatusReceived(final HttpResponseStatus status) {
+            this.statusCode = status.getStatusCode();
+            return this.cancelled ? State.ABORT : State.CONTINUE;
+        }
+
+        @Override
+        public State onHeadersReceived(final HttpHeaders headers) {
+            return this.cancelled ? State.ABORT : State.CONTINUE;
+        }
+
+        @Override
+        public State onStream(final Publisher<HttpResponseBodyPart> publisher) {
+            publisher.subscribe(this);
+            return State.CONTINUE;
+        }
+
+        @Override
+        public State onBodyPartReceived(final HttpResponseBodyPart bodyPart) {
+            this.parse(bodyPart);
+            this.drain();
+            return this.cancelled ? State.ABORT : State.CONTINUE;
+        }
+
+        @Override
+        public void onThrowable(final Throwable throwable) {
+            this.fail(throwable);
+        }
+
+        @Override
+        public Void onCompleted() {
+            // a streamed body ends with onComplete, only responses without body end here
+            if (this.body == null) {
+                this.done = true;
+                this.drain();
+            }
+            return null;
+        }
+
+        // Subscriber of the body parts
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.body = subscription;
+            if (this.cancelled) {
+                subscription.cancel();
+            } else {
+                this.drain();
+            }
+        }
+
+        @Override
+        public void onNext(final HttpResponseBodyPart bodyPart) {
+            this.bodyRequested = false;
+            this.parse(bodyPart);
+            this.drain();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            if (this.error == null) {
+                this.error = throwable;
+            }
+            this.done = true;
+            this.drain();
+        }
+
+        @Override
+        public void onComplete() {
+            this.done = true;
+            this.drain();
+        }
+
+        private void parse(final HttpResponseBodyPart bodyPart) {
+            try {
+                this.parser.feed(bodyPart.getBodyByteBuffer());
+            } catch (final RuntimeException exception) {
+                this.fail(exception);
+            }
+        }
+
+        /**
+         * Emit the parsed rows while the subscriber has demand, then ask the connection for the
+         * next body chunk if more rows are needed
+         */
+        private void drain() {
+            if (this.wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (this.terminated || this.cancelled) {
+                    return;
+                }
+                long emitted = 0;
+                final long requested = this.demand.get();
+                while (emitted != requested && !this.cancelled) {
+                    final JSONObject row = this.rows.poll();
+                    if (row == null) {
+                        break;
+                    }
+                    this.subscriber.onNext(row);
+                    emitted++;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    this.demand.addAndGet(-emitted);
+                }
+
+                if (this.done && (this.rows.isEmpty() || this.error != null)) {
+                    this.terminated = true;
+                    final Throwable failure = this.failure();
+                    if (failure != null) {
+                        this.subscriber.onError(failure);
+                    } else {
+                        this.subscriber.onComplete();
+                    }
+                    return;
+                }
+
+                final Subscription body = this.body;
+                if (body != null && !this.bodyRequested && this.rows.isEmpty() &&
+                        this.demand.get() > 0) {
+                    this.bodyRequested = true;
+                    body.request(1);
+                }
+                missed = this.wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * @return the transport error or the API error of the response, null if it succeeded
+         */
+        private Throwable failure() {
+            if (this.error != null) {
+                return this.error;
+            }
+            final String errors = this.parser.getErrors();
+            if (errors != null) {
+                final JSONObject error = ResponseParser.firstError(new JSONObject()
+                        .put("errors", errors.startsWith("[") ?
+                                new JSONArray(errors) : new JSONObject(errors)));
+                if (error != null) {
+                    return ResponseParser.toException(error);
+                }
+            }
+            if (this.statusCode >= 400) {
+                return new SDHttpError("SlicingDice: request failed with HTTP status " +
+                        this.statusCode + ".");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+import org.asynchttpclient.Dsl;
+
+/**
+ * Connection settings used by a {@link Requester} to build its own HTTP client
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public class TransportConfig {
+
+    /**
+     * Where the request callbacks, HandlerResponse and async JSON parsing, run
+     */
+    public enum CallbackMode {
+        /**
+         * On a fixed pool of callbackThreadsCount threads
+         */
+        POOL,
+        /**
+         * Inline on the Netty IO thread that received the response, the callbacks must not
+         * block
+         */
+        INLINE,
+        /**
+         * On a new virtual thread per callback, requires Java 21, falls back to POOL on older
+         * runtimes
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * What to do with a callback when the queue of the callback pool is full
+     */
+    public enum CallbackOverflowPolicy {
+        /**
+         * Run the callback on the IO thread that received the response, slowing down the
+         * reading of new responses
+         */
+        CALLER_RUNS,
+        /**
+         * Reject the callback, async results complete exceptionally with a
+         * RejectedExecutionException and HandlerResponse callbacks are dropped
+         */
+        REJECT
+    }
+
+    private static final Logger logger = Logger.getLogger(TransportConfig.class.getCanonicalName());
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerHost;
+
+    private final boolean keepAlive;
+
+    private final int pooledConnectionIdleTimeout;
+
+    private final int connectionTtl;
+
+    private final int connectTimeout;
+
+    private final boolean useNativeTransport;
+
+    private final int ioThreadsCount;
+
+    private final int callbackThreadsCount;
+
+    private final CallbackMode callbackMode;
+
+    private final Executor callbackExecutor;
+
+    private final int callbackQueueSize;
+
+    private final CallbackOverflowPolicy callbackOverflowPolicy;
+
+    private final Compression requestCompression;
+
+    private final int compressionThreshold;
+
+    private final boolean acceptCompressedResponses;
+
+    private TransportConfig(final Builder builder) {
+        this.maxConnections = builder.maxConnections;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.keepAlive = builder.keepAlive;
+        this.pooledConnectionIdleTimeout = builder.pooledConnectionIdleTimeout;
+        this.connectionTtl = builder.connectionTtl;
+        this.connectTimeout = builder.connectTimeout;
+        this.useNativeTransport = builder.useNativeTransport;
+        this.ioThreadsCount = builder.ioThreadsCount;
+        this.callbackThreadsCount = builder.callbackThreadsCount;
+        this.callbackMode = builder.callbackMode;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.callbackQueueSize = builder.callbackQueueSize;
+        this.callbackOverflowPolicy = builder.callbackOverflowPolicy;
+        this.requestCompression = builder.requestCompression;
+        this.compressionThreshold = builder.compressionThreshold;
+        this.acceptCompressedResponses = builder.acceptCompressedResponses;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the settings used when a SlicingDice client is created without a TransportConfig
+     */
+    public static TransportConfig defaults() {
+        return new Builder().build();
+    }
+
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    public boolean isKeepAlive() {
+        return this.keepAlive;
+    }
+
+    public int getPooledConnectionIdleTimeout() {
+        return this.pooledConnectionIdleTimeout;
+    }
+
+    public int getConnectionTtl() {
+        return this.connectionTtl;
+    }
+
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    public boolean isUseNativeTransport() {
+        return this.useNativeTransport;
+    }
+
+    public int getIoThreadsCount() {
+        return this.ioThreadsCount;
+    }
+
+    public int getCallbackThreadsCount() {
+        return this.callbackThreadsCount;
+    }
+
+    public CallbackMode getCallbackMode() {
+        return this.callbackMode;
+    }
+
+    public Executor getCallbackExecutor() {
+        return this.callbackExecutor;
+    }
+
+    public int getCallbackQueueSize() {
+        return this.callbackQueueSize;
+    }
+
+    public CallbackOverflowPolicy getCallbackOverflowPolicy() {
+        return this.callbackOverflowPolicy;
+    }
+
+    public Compression getRequestCompression() {
+        return this.requestCompression;
+    }
+
+    public int getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
+
+    public boolean isAcceptCompressedResponses() {
+        return this.acceptCompressedResponses;
+    }
+
+    /**
+     * Build a new HTTP client with this configuration, the caller owns the client and must
+     * close it.
+     */
+    AsyncHttpClient createClient() {
+        final DefaultAsyncHttpClientConfig.Builder config = Dsl.config()
+                .setMaxConnections(this.maxConnections)
+                .setMaxConnectionsPerHost(this.maxConnectionsPerHost)
+                .setKeepAlive(this.keepAlive)
+                .setPooledConnectionIdleTimeout(this.pooledConnectionIdleTimeout)
+                .setConnectionTtl(this.connectionTtl)
+                .setConnectTimeout(this.connectTimeout)
+                .setUseNativeTransport(this.useNativeTransport && isNativeTransportAvailable())
+                .setCompressionEnforced(this.acceptCompressedResponses)
+                .setThreadPoolName("slicingdice-io");
+
+        if (this.ioThreadsCount > 0) {
+            config.setIoThreadsCount(this.ioThreadsCount);
+        }
+
+        return Dsl.asyncHttpClient(config);
+    }
+
+    /**
+     * Build the executor running the request callbacks, the caller owns the executor and must
+     * shut it down unless it is the user's callbackExecutor
+     */
+    Executor createCallbackExecutor() {
+        if (this.callbackExecutor != null) {
+            return this.callbackExecutor;
+        }
+        if (this.callbackMode == CallbackMode.INLINE) {
+            return Runnable::run;
+        }
+        if (this.callbackMode == CallbackMode.VIRTUAL_THREADS) {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (final ReflectiveOperationException ignored) {
+                logger.warning("SlicingDice: virtual threads are not available, running " +
+                        "callbacks on a thread pool.");
+            }
+        }
+
+        final BlockingQueue<Runnable> queue = this.callbackQueueSize > 0 ?
+                new ArrayBlockingQueue<>(this.callbackQueueSize) : new LinkedBlockingQueue<>();
+        final AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(this.callbackThreadsCount, this.callbackThreadsCount,
+                0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+                    final Thread thread = new Thread(runnable,
+                            "slicingdice-callback-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                this.callbackOverflowPolicy == CallbackOverflowPolicy.REJECT ?
+                        new ThreadPoolExecutor.AbortPolicy() :
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Check if Netty's epoll transport is on the classpath and usable on this platform
+     */
+    private static boolean isNativeTransportAvailable() {
+        try {
+            final Class<?> epoll = Class.forName("io.netty.channel.epoll.Epoll");
+            if ((Boolean) epoll.getMethod("isAvailable").invoke(null)) {
+                return true;
+            }
+        } catch (final ReflectiveOperationException | LinkageError ignored) {
+        }
+        logger.warning("SlicingDice: epoll native transport is not available, falling back to NIO.");
+        return false;
+    }
+
+    public static class Builder {
+
+        private int maxConnections = -1;
+
+        private int maxConnectionsPerHost = -1;
+
+        private boolean keepAlive = true;
+
+        private int pooledConnectionIdleTimeout = 60000;
+
+        private int connectionTtl = -1;
+
+        private int connectTimeout = 5000;
+
+        private boolean useNativeTransport = false;
+
+        private int ioThreadsCount = 0;
+
+        private int callbackThreadsCount = Runtime.getRuntime().availableProcessors();
+
+        private CallbackMode callbackMode = CallbackMode.POOL;
+
+        private Executor callbackExecutor;
+
+        private int callbackQueueSize = 10000;
+
+        private CallbackOverflowPolicy callbackOverflowPolicy =
+                CallbackOverflowPolicy.CALLER_RUNS;
+
+        private Compression requestCompression = Compression.NONE;
+
+        private int compressionThreshold = 1024;
+
+        private boolean acceptCompressedResponses = false;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxConnections Max number of open connections in the pool, -1 for no limit
+         */
+        public Builder maxConnections(final int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerHost Max number of open connections to a single host,
+         *                              -1 for no limit
+         */
+        public Builder maxConnectionsPerHost(final int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * @param keepAlive If connections should be kept open and reused between requests
+         */
+        public Builder keepAlive(final boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * @param pooledConnectionIdleTimeout Time in milliseconds an idle connection stays in
+         *                                    the pool
+         */
+        public Builder pooledConnectionIdleTimeout(final int pooledConnectionIdleTimeout) {
+            this.pooledConnectionIdleTimeout = pooledConnectionIdleTimeout;
+            return this;
+        }
+
+        /**
+         * @param connectionTtl Max lifetime in milliseconds of a pooled connection, -1 for no
+         *                      limit
+         */
+        public Builder connectionTtl(final int connectionTtl) {
+            this.connectionTtl = connectionTtl;
+            return this;
+        }
+
+        /**
+         * @param connectTimeout Time in milliseconds to establish a connection
+         */
+        public Builder connectTimeout(final int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Use Netty's epoll transport, requires netty-transport-native-epoll on the classpath.
+         * If it is missing the client falls back to NIO.
+         */
+        public Builder useNativeTransport(final boolean useNativeTransport) {
+            this.useNativeTransport = useNativeTransport;
+            return this;
+        }
+
+        /**
+         * @param ioThreadsCount Number of Netty IO threads, 0 to use Netty's default
+         */
+        public Builder ioThreadsCount(final int ioThreadsCount) {
+            this.ioThreadsCount = ioThreadsCount;
+            return this;
+        }
+
+        /**
+         * @param callbackThreadsCount Number of threads running HandlerResponse callbacks
+         */
+        public Builder callbackThreadsCount(final int callbackThreadsCount) {
+            if (callbackThreadsCount < 1) {
+                throw new IllegalArgumentException("callbackThreadsCount must be at least 1");
+            }
+            this.callbackThreadsCount = callbackThreadsCount;
+            return this;
+        }
+
+        /**
+         * @param callbackMode Where the request callbacks run, ignored if a callbackExecutor is
+         *                     set
+         */
+        public Builder callbackMode(final CallbackMode callbackMode) {
+            this.callbackMode = callbackMode;
+            return this;
+        }
+
+        /**
+         * @param callbackExecutor An executor of the application running the request callbacks,
+         *                         it is not shut down when the client is closed
+         */
+        public Builder callbackExecutor(final Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * @param callbackQueueSize Max number of callbacks waiting for a thread of the callback
+         *                          pool, 0 for an unbounded queue
+         */
+        public Builder callbackQueueSize(final int callbackQueueSize) {
+            this.callbackQueueSize = callbackQueueSize;
+            return this;
+        }
+
+        /**
+         * @param callbackOverflowPolicy What to do with callbacks when the queue of the callback
+         *                               pool is full
+         */
+        public Builder callbackOverflowPolicy(
+                final CallbackOverflowPolicy callbackOverflowPolicy) {
+            this.callbackOverflowPolicy = callbackOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * @param requestCompression Encoding used on insert, update, SQL and other request
+         *                           bodies, NONE to send them as plain text
+         */
+        public Builder requestCompression(final Compression requestCompression) {
+            this.requestCompression = requestCompression;
+            return this;
+        }
+
+        /**
+         * @param compressionThreshold Bodies smaller than this number of bytes are sent
+         *                             uncompressed
+         */
+        public Builder compressionThreshold(final int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * @param acceptCompressedResponses If requests should send Accept-Encoding and
+         *                                  decompress the API responses
+         */
+        public Builder acceptCompressedResponses(final boolean acceptCompressedResponses) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            return this;
+        }
+
+        public TransportConfig build() {
+            return new TransportConfig(this);
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class SlicingDiceException extends RuntimeException {
     private int code;
     private String message;
     private Object moreInfo;
+    private int statusCode;
 
     public SlicingDiceException(final String message) {
         super(message);
@@ -31,6 +32,28 @@ public class SlicingDiceException extends RuntimeException {
         this.message = data.getString("message");
     }
 
+    /**
+     * @return the code of the API error, 0 for errors raised by the client
+     */
+    public int getCode() {
+        return this.code;
+    }
+
+    /**
+     * @return the HTTP status of the response raising the error, 0 if there was no response
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * @param statusCode The HTTP status of the response raising the error
+     */
+    public SlicingDiceException setStatusCode(final int statusCode) {
+        this.statusCode = statusCode;
+        return this;
+    }
+
     @Override
     public String toString() {
         final Throwable cause = this.getCause();
@@ -0,0 +1,11 @@
+package com.slicingdice.jslicer.exceptions.client;
+
+/**
+ * Thrown immediately, without sending the request, while the circuit breaker of an endpoint
+ * is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.slicingdice.jslicer.exceptions.client;
+
+/**
+ * Thrown when a request is shed because the in-flight limit and its queue are full.
+ */
+public class ConcurrencyLimitException extends RuntimeException {
+    public ConcurrencyLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.slicingdice.jslicer.exceptions.client;
+
+/**
+ * Thrown when an insert can't be spooled because the spool reached its max disk usage.
+ */
+public class SpoolFullException extends RuntimeException {
+    public SpoolFullException(String message) {
+        super(message);
+    }
+}
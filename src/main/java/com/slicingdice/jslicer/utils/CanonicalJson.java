@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Deterministic JSON serialization: object keys are written in sorted order so two objects
+ * with the same content always give the same string, whatever the order they were built in.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public final class CanonicalJson {
+
+    private CanonicalJson() {
+    }
+
+    /**
+     * @param value A JSONObject, a JSONArray or a JSON scalar
+     * @return the canonical JSON of the value
+     */
+    public static String toString(final Object value) {
+        final StringBuilder builder = new StringBuilder();
+        write(builder, value);
+        return builder.toString();
+    }
+
+    private static void write(final StringBuilder builder, final Object value) {
+        if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            final List<String> keys = new ArrayList<>(object.keySet());
+            Collections.sort(keys);
+            builder.append('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(JSONObject.quote(keys.get(i))).append(':');
+                write(builder, object.get(keys.get(i)));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                write(builder, array.get(i));
+            }
+            builder.append(']');
+        } else {
+            builder.append(JSONObject.valueToString(value));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.utils;
+
+/**
+ * Enum with the groups of Slicing Dice endpoints sharing the same limits
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public enum EndpointClass {
+    /**
+     * Data insertion
+     */
+    INSERT,
+    /**
+     * Count, aggregation, top values, exists, SQL and data extraction queries
+     */
+    QUERY,
+    /**
+     * Columns, database and saved queries management
+     */
+    MANAGEMENT,
+    /**
+     * Delete and update of inserted data
+     */
+    MUTATION
+}
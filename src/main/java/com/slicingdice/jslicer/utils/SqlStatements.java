@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Simbiose Ventures.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.slicingdice.jslicer.utils;
+
+/**
+ * Classification of the SQL statements sent to the QUERY_SQL endpoint, which carries reads as
+ * well as INSERT, UPDATE and DELETE statements.
+ *
+ * @author Simbiose Ventures
+ * @version 0.1
+ * @since 2.2.0
+ */
+public final class SqlStatements {
+
+    private SqlStatements() {
+    }
+
+    /**
+     * @param sql A SQL statement
+     * @return true if the statement only reads data, a SELECT or WITH statement, so sending it
+     * twice or answering it from a cache is safe
+     */
+    public static boolean isRead(final String sql) {
+        if (sql == null) {
+            return false;
+        }
+        final String trimmed = sql.trim();
+        return trimmed.regionMatches(true, 0, "select", 0, 6) ||
+                trimmed.regionMatches(true, 0, "with", 0, 4);
+    }
+}
@@ -23,25 +23,28 @@ package com.slicingdice.jslicer.utils;
  * @since 2016-08-10
  */
 public enum URLResources {
-    COLUMN("/column/"),
-    INSERT("/insert/"),
-    QUERY_COUNT_ENTITY("/query/count/entity/"),
-    QUERY_COUNT_ENTITY_TOTAL("/query/count/entity/total/"),
-    QUERY_COUNT_EVENT("/query/count/event/"),
-    QUERY_AGGREGATION("/query/aggregation/"),
-    QUERY_TOP_VALUES("/query/top_values/"),
-    QUERY_EXISTS_ENTITY("/query/exists/entity/"),
-    QUERY_SAVED("/query/saved/"),
-    QUERY_DATA_EXTRACTION_RESULT("/data_extraction/result/"),
-    QUERY_DATA_EXTRACTION_SCORE("/data_extraction/score/"),
-    DATABASE("/database/"),
-    QUERY_SQL("/sql/"),
-    DELETE("/delete/"),
-    UPDATE("/update/");
+    COLUMN("/column/", EndpointClass.MANAGEMENT),
+    INSERT("/insert/", EndpointClass.INSERT),
+    QUERY_COUNT_ENTITY("/query/count/entity/", EndpointClass.QUERY),
+    QUERY_COUNT_ENTITY_TOTAL("/query/count/entity/total/", EndpointClass.QUERY),
+    QUERY_COUNT_EVENT("/query/count/event/", EndpointClass.QUERY),
+    QUERY_AGGREGATION("/query/aggregation/", EndpointClass.QUERY),
+    QUERY_TOP_VALUES("/query/top_values/", EndpointClass.QUERY),
+    QUERY_EXISTS_ENTITY("/query/exists/entity/", EndpointClass.QUERY),
+    QUERY_SAVED("/query/saved/", EndpointClass.MANAGEMENT),
+    QUERY_DATA_EXTRACTION_RESULT("/data_extraction/result/", EndpointClass.QUERY),
+    QUERY_DATA_EXTRACTION_SCORE("/data_extraction/score/", EndpointClass.QUERY),
+    DATABASE("/database/", EndpointClass.MANAGEMENT),
+    QUERY_SQL("/sql/", EndpointClass.QUERY),
+    DELETE("/delete/", EndpointClass.MUTATION),
+    UPDATE("/update/", EndpointClass.MUTATION);
 
     public final String url;
 
-    URLResources(String url) {
+    public final EndpointClass endpointClass;
+
+    URLResources(String url, EndpointClass endpointClass) {
         this.url = url;
+        this.endpointClass = endpointClass;
     }
 }
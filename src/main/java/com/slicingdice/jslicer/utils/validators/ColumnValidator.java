@@ -21,6 +21,7 @@ import com.slicingdice.jslicer.exceptions.client.InvalidColumnNameException;
 import com.slicingdice.jslicer.exceptions.client.InvalidColumnTypeException;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -34,15 +35,20 @@ import org.json.JSONObject;
  */
 public class ColumnValidator {
 
+    /**
+     * The column types supported by Slicing Dice
+     */
+    public static final List<String> COLUMN_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "unique-id", "boolean", "string", "integer", "decimal",
+            "enumerated", "date", "integer-event",
+            "decimal-event", "string-event", "datetime"));
+
     private final Object data;
     private final List<String> validTypeColumns;
 
     public ColumnValidator(final Object data) {
         this.data = data;
-        this.validTypeColumns = Arrays.asList(
-                "unique-id", "boolean", "string", "integer", "decimal",
-                "enumerated", "date", "integer-event",
-                "decimal-event", "string-event", "datetime");
+        this.validTypeColumns = COLUMN_TYPES;
     }
 
     /**
@@ -28,6 +28,11 @@ import org.json.JSONObject;
  */
 public class QueryCountValidator {
 
+    /**
+     * Max number of count queries sent in a request
+     */
+    public static final int MAX_QUERIES = 10;
+
     /**
      * A String list with all operations supported
      */
@@ -45,7 +50,7 @@ public class QueryCountValidator {
     public boolean validator() {
         if (data instanceof JSONArray) {
             final int querySize = ((JSONArray) this.data).length();
-            if (querySize > 10) {
+            if (querySize > MAX_QUERIES) {
                 throw new MaxLimitException(
                         "The query count entity has a limit of 10 queries by request.");
             }
@@ -0,0 +1,113 @@
+package com.slicingdice.jslicer;
+
+import com.slicingdice.jslicer.core.TransportConfig;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Compare the blocking facade called from one virtual thread per request with the async API
+ * called from a single thread. Point SD_API_ADDRESS to a test server before running it:
+ *
+ * mvn exec:java -Dexec.mainClass="com.slicingdice.jslicer.BlockingBenchmark"
+ *     -Dexec.classpathScope=test -Dexec.args="API_KEY 10000"
+ */
+public class BlockingBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final String apiKey = args[0];
+        final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        final TransportConfig transport = TransportConfig.builder()
+                .callbackMode(TransportConfig.CallbackMode.INLINE)
+                .build();
+        try (final BlockingSlicingDice client = new BlockingSlicingDice(
+                new SlicingDice(apiKey, null, null, null, 60, transport))) {
+            // every call sends the same query, time each request instead of a shared one
+            client.getAsync().setCoalesceReads(false);
+            final JSONObject query = new JSONObject()
+                    .put("query-name", "benchmark")
+                    .put("query", new JSONArray().put(new JSONObject()
+                            .put("benchmark-column", new JSONObject().put("equals", 1))));
+
+            // warm up the connection pool and the JIT
+            runAsync(client.getAsync(), query, Math.min(requests, 1000));
+            runBlocking(client, query, Math.min(requests, 1000));
+
+            report("async", runAsync(client.getAsync(), query, requests));
+            report("blocking", runBlocking(client, query, requests));
+        }
+    }
+
+    private static long[] runBlocking(final BlockingSlicingDice client, final JSONObject query,
+                                      final int requests) throws InterruptedException {
+        final long[] latencies = new long[requests];
+        final ExecutorService threads = newVirtualThreadExecutor();
+        final long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            final int index = i;
+            threads.execute(() -> {
+                final long requestStart = System.nanoTime();
+                try {
+                    client.countEntity(query);
+                } catch (final RuntimeException ignored) {
+                }
+                latencies[index] = System.nanoTime() - requestStart;
+            });
+        }
+        threads.shutdown();
+        threads.awaitTermination(10, TimeUnit.MINUTES);
+        return withTotal(latencies, System.nanoTime() - start);
+    }
+
+    private static long[] runAsync(final SlicingDice client, final JSONObject query,
+                                   final int requests) {
+        final long[] latencies = new long[requests];
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[requests];
+        final long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            final int index = i;
+            final long requestStart = System.nanoTime();
+            results[i] = client.countEntityAsync(query).handle((data, error) ->
+                    latencies[index] = System.nanoTime() - requestStart);
+        }
+        CompletableFuture.allOf(results).join();
+        return withTotal(latencies, System.nanoTime() - start);
+    }
+
+    /**
+     * One virtual thread per task when the runtime supports them, a thread per task otherwise
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException exception) {
+            System.out.println("Virtual threads are not available, using platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static long[] withTotal(final long[] latencies, final long total) {
+        final long[] result = Arrays.copyOf(latencies, latencies.length + 1);
+        result[latencies.length] = total;
+        return result;
+    }
+
+    private static void report(final String name, final long[] result) {
+        final long total = result[result.length - 1];
+        final long[] latencies = Arrays.copyOf(result, result.length - 1);
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-8s %6d requests in %6d ms, %8.0f req/s, " +
+                        "p50 %5d ms, p99 %5d ms", name, latencies.length,
+                TimeUnit.NANOSECONDS.toMillis(total),
+                latencies.length * 1e9 / total,
+                TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length * 99 / 100])));
+    }
+}
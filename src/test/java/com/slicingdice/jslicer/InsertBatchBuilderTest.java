@@ -0,0 +1,125 @@
+package com.slicingdice.jslicer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class InsertBatchBuilderTest {
+
+    @Test
+    public void writesEveryValueType() {
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int year = batch.integerColumn("year");
+        final int price = batch.decimalColumn("price");
+        final int model = batch.stringColumn("car-model");
+        final int sold = batch.booleanColumn("sold");
+        batch.entity("user1").set(year, 2016).set(price, 12.5).set(model, "Ford Ka")
+                .set(sold, true);
+        batch.entity("user2").set(year, Long.MIN_VALUE).set(price, -0.001)
+                .set(model, "").set(sold, false);
+        batch.entity("user3").set(year, Long.MAX_VALUE).set(price, 1.0E21);
+
+        assertParses(new JSONObject()
+                .put("user1", new JSONObject().put("year", 2016).put("price", 12.5)
+                        .put("car-model", "Ford Ka").put("sold", true))
+                .put("user2", new JSONObject().put("year", Long.MIN_VALUE)
+                        .put("price", -0.001).put("car-model", "").put("sold", false))
+                .put("user3", new JSONObject().put("year", Long.MAX_VALUE)
+                        .put("price", 1.0E21)), batch);
+    }
+
+    @Test
+    public void escapesStrings() {
+        final String escaped = "quote \" backslash \\ slash / newline \n return \r tab \t " +
+                "backspace \b form feed \f control \u0001 \u001f";
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int name = batch.stringColumn("name \"quoted\"");
+        batch.entity("id \\ \"escaped\"").set(name, escaped);
+
+        assertParses(new JSONObject().put("id \\ \"escaped\"",
+                new JSONObject().put("name \"quoted\"", escaped)), batch);
+    }
+
+    @Test
+    public void encodesUtf8AndSurrogatePairs() {
+        final String text = "caf\u00e9 \u20ac \u4e2d\u6587 \ud83d\ude00 \ud83c\udf89";
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int name = batch.stringColumn("n\u00e4me");
+        batch.entity("\ud83d\ude80").set(name, text);
+
+        assertParses(new JSONObject()
+                .put("\ud83d\ude80", new JSONObject().put("n\u00e4me", text)), batch);
+        assertEquals(batch.toString(), new String(batch.toBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void replacesLoneSurrogates() {
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int name = batch.stringColumn("name");
+        batch.entity("user1").set(name, "a\ud83db\ude00");
+
+        assertParses(new JSONObject().put("user1", new JSONObject().put("name", "a?b?")), batch);
+    }
+
+    @Test
+    public void skipsAbsentValues() {
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int year = batch.integerColumn("year");
+        final int model = batch.stringColumn("car-model");
+        batch.entity("user1").set(model, "Ford Ka");
+        batch.entity("user2");
+        batch.entity("user3").set(year, 0);
+
+        assertParses(new JSONObject()
+                .put("user1", new JSONObject().put("car-model", "Ford Ka"))
+                .put("user2", new JSONObject())
+                .put("user3", new JSONObject().put("year", 0)), batch);
+    }
+
+    @Test
+    public void writesAutoCreate() {
+        final JSONArray autoCreate = new JSONArray().put("dimension").put("column");
+        final InsertBatchBuilder batch = new InsertBatchBuilder().autoCreate(autoCreate);
+        final int year = batch.integerColumn("year");
+        batch.entity("user1").set(year, 2016);
+
+        assertParses(new JSONObject()
+                .put("user1", new JSONObject().put("year", 2016))
+                .put("auto-create", autoCreate), batch);
+    }
+
+    @Test
+    public void writesEmptyBatches() {
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        batch.integerColumn("year");
+        assertParses(new JSONObject(), batch);
+
+        final JSONArray autoCreate = new JSONArray().put("dimension");
+        batch.autoCreate(autoCreate);
+        assertParses(new JSONObject().put("auto-create", autoCreate), batch);
+    }
+
+    @Test
+    public void reusesClearedBuilders() {
+        final InsertBatchBuilder batch = new InsertBatchBuilder();
+        final int year = batch.integerColumn("year");
+        for (int i = 0; i < 100; i++) {
+            batch.entity("user" + i).set(year, i);
+        }
+        batch.clear();
+        assertParses(new JSONObject(), batch);
+
+        batch.entity("user1");
+        assertParses(new JSONObject().put("user1", new JSONObject()), batch);
+        assertEquals(1, batch.size());
+    }
+
+    private static void assertParses(final JSONObject expected, final InsertBatchBuilder batch) {
+        final JSONObject actual = new JSONObject(batch.toString());
+        assertTrue("expected " + expected + " but was " + actual, expected.similar(actual));
+    }
+}
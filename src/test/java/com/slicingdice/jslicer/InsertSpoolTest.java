@@ -0,0 +1,369 @@
+package com.slicingdice.jslicer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.slicingdice.jslicer.exceptions.RequestBodySizeExceededException;
+import com.slicingdice.jslicer.exceptions.api.SlicingDiceException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InsertSpoolTest {
+
+    private static final int HEADER_SIZE = 8;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FakeClient> clients = new ArrayList<>();
+
+    @After
+    public void closeClients() throws IOException {
+        for (final FakeClient client : this.clients) {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void insertsRecordsInOrder() throws Exception {
+        final FakeClient client = this.client();
+        try (InsertSpool spool = this.spool(client, this.folder.getRoot().toPath())
+                .maxInFlight(1).build()) {
+            for (int i = 0; i < 50; i++) {
+                spool.append(record(i)).join();
+            }
+            waitFor(() -> spool.getPending() == 0);
+        }
+
+        assertEquals(range(0, 50), client.received());
+    }
+
+    @Test(timeout = 10000)
+    public void resumesFromTheCursorWithoutLosingOrDuplicatingRecords() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final FakeClient first = this.client();
+        // accept the first 10 records, then never answer
+        first.respond(data -> first.accepted() < 10 ? null : FakeClient.HOLD);
+        try (InsertSpool spool = this.spool(first, directory).maxInFlight(3).build()) {
+            for (int i = 0; i < 30; i++) {
+                spool.append(record(i)).join();
+            }
+            waitFor(() -> spool.getPending() == 20);
+        }
+        assertEquals(range(0, 10), first.received());
+
+        final FakeClient second = this.client();
+        try (InsertSpool spool = this.spool(second, directory).build()) {
+            waitFor(() -> second.accepted() == 20);
+            spool.append(record(30)).join();
+            waitFor(() -> spool.getPending() == 0);
+        }
+
+        final List<Integer> all = new ArrayList<>(first.received());
+        all.addAll(second.received());
+        Collections.sort(all);
+        assertEquals(range(0, 31), all);
+    }
+
+    @Test(timeout = 10000)
+    public void ignoresACorruptedTail() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        this.spoolHeld(directory, 5);
+
+        // flip a byte in the body of the last record, its checksum no longer matches
+        final Path segment = segments(directory).get(0);
+        final int last = offset(4);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, last + HEADER_SIZE + 2);
+            value.put(0, (byte) (value.get(0) ^ 0x7f)).rewind();
+            channel.write(value, last + HEADER_SIZE + 2);
+        }
+
+        assertEquals(range(0, 4), this.replayAll(directory));
+    }
+
+    @Test(timeout = 10000)
+    public void ignoresATruncatedTail() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        this.spoolHeld(directory, 5);
+
+        // cut the last record in half, as if the process crashed while writing it
+        final Path segment = segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(offset(4) + HEADER_SIZE + 3);
+        }
+
+        assertEquals(range(0, 4), this.replayAll(directory));
+    }
+
+    @Test(timeout = 10000)
+    public void deletesSegmentsOnceInserted() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final FakeClient client = this.client();
+        client.respond(data -> FakeClient.HOLD);
+        try (InsertSpool spool = this.spool(client, directory).segmentSize(128)
+                .maxDiskBytes(128 * 100).build()) {
+            for (int i = 0; i < 40; i++) {
+                spool.append(record(i)).join();
+            }
+            final int written = segments(directory).size();
+            assertTrue(written > 5);
+            assertEquals(written * 128L, spool.getDiskUsage());
+        }
+
+        final FakeClient second = this.client();
+        try (InsertSpool spool = this.spool(second, directory).segmentSize(128)
+                .maxDiskBytes(128 * 100).build()) {
+            waitFor(() -> spool.getPending() == 0);
+            // the segment opened for appends is the only one left
+            waitFor(() -> segments(directory).size() == 1);
+            assertEquals(128L, spool.getDiskUsage());
+        }
+        assertEquals(range(0, 40), second.received());
+    }
+
+    @Test(timeout = 10000)
+    public void splitsRecordsRejectedForTheirSize() throws Exception {
+        final FakeClient client = this.client();
+        client.respond(data -> data.length() > 2 ? new RequestBodySizeExceededException(
+                new JSONObject().put("code", 1507).put("message", "too large")) : null);
+        final JSONObject data = new JSONObject();
+        for (int i = 0; i < 7; i++) {
+            data.put("e" + i, new JSONObject().put("n", i));
+        }
+        try (InsertSpool spool = this.spool(client, this.folder.getRoot().toPath()).build()) {
+            spool.append(data).join();
+            waitFor(() -> spool.getPending() == 0);
+        }
+
+        final List<Integer> received = client.received();
+        Collections.sort(received);
+        assertEquals(range(0, 7), received);
+        assertTrue(client.getInsertSizeCeiling() < data.toString().length());
+    }
+
+    @Test(timeout = 10000)
+    public void retriesServerErrorsAndDeadLettersContentErrors() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final AtomicInteger calls = new AtomicInteger();
+        final FakeClient client = this.client();
+        client.respond(data -> {
+            if (calls.incrementAndGet() <= 20) {
+                return new SlicingDiceException(new JSONObject().put("code", 10)
+                        .put("message", "unavailable")).setStatusCode(503);
+            }
+            if (data.has("e1")) {
+                return new SlicingDiceException(new JSONObject().put("code", 3000)
+                        .put("message", "invalid")).setStatusCode(400);
+            }
+            return null;
+        });
+        try (InsertSpool spool = this.spool(client, directory).maxAttempts(1).build()) {
+            for (int i = 0; i < 3; i++) {
+                spool.append(record(i)).join();
+            }
+            waitFor(() -> spool.getPending() == 0);
+        }
+
+        final List<Integer> received = client.received();
+        Collections.sort(received);
+        assertEquals(listOf(0, 2), received);
+        final List<String> letters = Files.readAllLines(
+                directory.resolve("dead-letter.ndjson"), StandardCharsets.UTF_8);
+        assertEquals(1, letters.size());
+        assertTrue(record(1).similar(new JSONObject(letters.get(0)).getJSONObject("body")));
+    }
+
+    @Test(timeout = 10000)
+    public void skipsReplayedRecordsAcknowledgedByTheLedger() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final BatchLedger ledger = BatchLedger.builder().build();
+        final FakeClient first = this.client();
+        // the second record is inserted but the cursor stays before the first one
+        first.respond(data -> data.has("e0") ? FakeClient.HOLD : null);
+        try (InsertSpool spool = this.spool(first, directory).ledger(ledger).build()) {
+            spool.append(record(0)).join();
+            spool.append(record(1)).join();
+            waitFor(() -> first.accepted() == 1);
+        }
+
+        final FakeClient second = this.client();
+        try (InsertSpool spool = this.spool(second, directory).ledger(ledger).build()) {
+            waitFor(() -> spool.getPending() == 0);
+            assertEquals(listOf(0), second.received());
+            assertEquals(1, ledger.getHits());
+
+            // a new record identical to an acknowledged one is inserted
+            spool.append(record(1)).join();
+            waitFor(() -> spool.getPending() == 0);
+        }
+        assertEquals(listOf(0, 1), second.received());
+        assertEquals(1, ledger.getHits());
+    }
+
+    /**
+     * Spool records with a client that never answers, leaving them all on disk
+     */
+    private void spoolHeld(final Path directory, final int count) throws Exception {
+        final FakeClient client = this.client();
+        client.respond(data -> FakeClient.HOLD);
+        try (InsertSpool spool = this.spool(client, directory).build()) {
+            for (int i = 0; i < count; i++) {
+                spool.append(record(i)).join();
+            }
+        }
+        assertFalse(segments(directory).isEmpty());
+    }
+
+    /**
+     * Open a spool on a directory and wait until it inserted every valid record left there
+     */
+    private List<Integer> replayAll(final Path directory) throws Exception {
+        final FakeClient client = this.client();
+        try (InsertSpool spool = this.spool(client, directory).build()) {
+            waitFor(() -> spool.getPending() == 0);
+        }
+        return client.received();
+    }
+
+    private FakeClient client() {
+        final FakeClient client = new FakeClient();
+        this.clients.add(client);
+        return client;
+    }
+
+    private InsertSpool.Builder spool(final FakeClient client, final Path directory) {
+        return InsertSpool.builder(client, directory)
+                .segmentSize(64 * 1024)
+                .fsyncPolicy(InsertSpool.FsyncPolicy.NEVER)
+                .retryDelay(1, 5);
+    }
+
+    private static JSONObject record(final int n) {
+        return new JSONObject().put("e" + n, new JSONObject().put("n", n));
+    }
+
+    /**
+     * @return the position of a record in the first segment when every record was spooled
+     */
+    private static int offset(final int n) {
+        int offset = 0;
+        for (int i = 0; i < n; i++) {
+            offset += HEADER_SIZE + record(i).toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return offset;
+    }
+
+    private static List<Path> segments(final Path directory) {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+            for (final Path file : files) {
+                segments.add(file);
+            }
+        } catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static List<Integer> range(final int from, final int to) {
+        final List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static List<Integer> listOf(final Integer... values) {
+        final List<Integer> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Client answering inserts locally, it records the entities of the accepted inserts
+     */
+    private static final class FakeClient extends SlicingDice {
+
+        /**
+         * Returned by the responder to leave an insert without response
+         */
+        private static final Throwable HOLD = new Throwable("held");
+
+        private final List<Integer> received = new ArrayList<>();
+
+        private volatile Function<JSONObject, Throwable> responder = data -> null;
+
+        private FakeClient() {
+            super("test-key");
+        }
+
+        /**
+         * @param responder Returns the error of an insert, null to accept it
+         */
+        private void respond(final Function<JSONObject, Throwable> responder) {
+            this.responder = responder;
+        }
+
+        @Override
+        public CompletableFuture<JSONObject> insertRawAsync(final byte[] body) {
+            final JSONObject data = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+            final Throwable error = this.responder.apply(data);
+            if (error == HOLD) {
+                return result;
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+                return result;
+            }
+            synchronized (this.received) {
+                for (final String key : data.keySet()) {
+                    this.received.add(data.getJSONObject(key).getInt("n"));
+                }
+            }
+            result.complete(new JSONObject().put("status", "success"));
+            return result;
+        }
+
+        private int accepted() {
+            synchronized (this.received) {
+                return this.received.size();
+            }
+        }
+
+        private List<Integer> received() {
+            synchronized (this.received) {
+                return new ArrayList<>(this.received);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.slicingdice.jslicer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class OffHeapStoreTest {
+
+    private static final long LIVE = Long.MAX_VALUE;
+
+    @Test
+    public void readsValuesBack() {
+        final OffHeapStore store = new OffHeapStore(64);
+        store.put("a", bytes("first"), LIVE);
+        store.put("b", bytes("second"), LIVE);
+
+        assertEquals("first", get(store, "a", 0));
+        assertEquals("second", get(store, "b", 0));
+        assertNull(get(store, "c", 0));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void overwritesOldestValuesWhenFull() {
+        final OffHeapStore store = new OffHeapStore(10);
+        store.put("a", bytes("aaaa"), LIVE);
+        store.put("b", bytes("bbbb"), LIVE);
+        // doesn't fit in the last 2 bytes, written at the start over a
+        store.put("c", bytes("cccc"), LIVE);
+
+        assertNull(get(store, "a", 0));
+        assertEquals("bbbb", get(store, "b", 0));
+        assertEquals("cccc", get(store, "c", 0));
+        assertEquals(2, store.size());
+
+        store.put("d", bytes("dddd"), LIVE);
+        assertNull(get(store, "b", 0));
+        assertEquals("cccc", get(store, "c", 0));
+        assertEquals("dddd", get(store, "d", 0));
+    }
+
+    @Test
+    public void wrapsAroundManyTimes() {
+        final OffHeapStore store = new OffHeapStore(16);
+        for (int i = 0; i < 1000; i++) {
+            store.put("k" + i, bytes(String.format("%05d", i)), LIVE);
+            assertEquals(String.format("%05d", i), get(store, "k" + i, 0));
+            if (i > 0) {
+                assertEquals(String.format("%05d", i - 1), get(store, "k" + (i - 1), 0));
+            }
+            if (i > 2) {
+                assertNull(get(store, "k" + (i - 3), 0));
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheLatestValueOfAKey() {
+        final OffHeapStore store = new OffHeapStore(8);
+        store.put("k", bytes("old1"), LIVE);
+        store.put("k", bytes("new1"), LIVE);
+        // overwrites the old value of k, not the new one
+        store.put("x", bytes("xxxx"), LIVE);
+
+        assertEquals("new1", get(store, "k", 0));
+        assertEquals("xxxx", get(store, "x", 0));
+    }
+
+    @Test
+    public void expiresValues() {
+        final OffHeapStore store = new OffHeapStore(64);
+        store.put("a", bytes("value"), 100);
+
+        assertEquals("value", get(store, "a", 99));
+        assertNull(get(store, "a", 100));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void skipsValuesLargerThanTheBuffer() {
+        final OffHeapStore store = new OffHeapStore(4);
+        store.put("a", bytes("abcd"), LIVE);
+        store.put("b", bytes("abcde"), LIVE);
+
+        assertEquals("abcd", get(store, "a", 0));
+        assertNull(get(store, "b", 0));
+    }
+
+    @Test
+    public void removesAndClears() {
+        final OffHeapStore store = new OffHeapStore(64);
+        store.put("a", bytes("1"), LIVE);
+        store.put("b", bytes("2"), LIVE);
+        store.remove("a");
+
+        assertNull(get(store, "a", 0));
+        assertEquals("2", get(store, "b", 0));
+
+        store.clear();
+        assertNull(get(store, "b", 0));
+        assertEquals(0, store.size());
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String get(final OffHeapStore store, final String key, final long now) {
+        final byte[] value = store.get(key, now);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.slicingdice.jslicer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.slicingdice.jslicer.utils.URLResources;
+import java.io.IOException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    @Test
+    public void collapsesSqlWhitespace() {
+        assertEquals("SELECT COUNT(*) FROM users WHERE age > 18",
+                QueryCache.normalizeSql("  SELECT\tCOUNT(*)\n  FROM   users\r\nWHERE age > 18 \n"));
+        assertEquals("", QueryCache.normalizeSql(" \n\t "));
+    }
+
+    @Test
+    public void keepsWhitespaceInQuotes() {
+        assertEquals("SELECT \"first  name\" FROM `my  table` WHERE city = 'New \n York'",
+                QueryCache.normalizeSql("SELECT  \"first  name\"  FROM `my  table`\n" +
+                        "WHERE city =   'New \n York'"));
+        assertEquals("SELECT 'it''s  here' FROM t",
+                QueryCache.normalizeSql("SELECT   'it''s  here'   FROM t"));
+    }
+
+    @Test
+    public void keysEquivalentQueriesAlike() {
+        final JSONObject first = new JSONObject().put("query-name", "q").put("query",
+                new JSONArray().put(new JSONObject().put("a", new JSONObject().put("equals", 1))));
+        final JSONObject second = new JSONObject().put("query",
+                new JSONArray().put(new JSONObject().put("a", new JSONObject().put("equals", 1))))
+                .put("query-name", "q");
+
+        assertEquals(QueryCache.key(URLResources.QUERY_COUNT_ENTITY, first),
+                QueryCache.key(URLResources.QUERY_COUNT_ENTITY, second));
+        assertNotEquals(QueryCache.key(URLResources.QUERY_COUNT_ENTITY, first),
+                QueryCache.key(URLResources.QUERY_COUNT_EVENT, first));
+        assertEquals(QueryCache.key(URLResources.QUERY_SQL, "SELECT *  FROM t"),
+                QueryCache.key(URLResources.QUERY_SQL, " SELECT * FROM t\n"));
+    }
+
+    @Test
+    public void cachesOnlySqlReads() {
+        final QueryCache cache = QueryCache.builder().build();
+
+        assertTrue(cache.isCached(URLResources.QUERY_SQL, "  select * from t"));
+        assertTrue(cache.isCached(URLResources.QUERY_SQL, "WITH a AS (SELECT 1) " +
+                "SELECT * FROM a"));
+        assertFalse(cache.isCached(URLResources.QUERY_SQL, "INSERT INTO t VALUES (1)"));
+        assertFalse(cache.isCached(URLResources.QUERY_EXISTS_ENTITY, new JSONObject()));
+    }
+
+    @Test
+    public void servesASingleClient() throws IOException {
+        final QueryCache cache = QueryCache.builder().build();
+        final SlicingDice first = new SlicingDice("first");
+        final SlicingDice second = new SlicingDice("second");
+        try {
+            first.setQueryCache(cache);
+            first.setQueryCache(cache);
+            try {
+                second.setQueryCache(cache);
+                fail("a cache set on two clients would mix their databases");
+            } catch (final IllegalArgumentException expected) {
+                assertNull(second.getQueryCache());
+            }
+
+            final String key = QueryCache.key(URLResources.QUERY_COUNT_ENTITY, "q");
+            cache.put(URLResources.QUERY_COUNT_ENTITY, key, "{}");
+            first.setQueryCache(null);
+            assertNull(cache.get(key));
+            second.setQueryCache(cache);
+            assertSame(cache, second.getQueryCache());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+}
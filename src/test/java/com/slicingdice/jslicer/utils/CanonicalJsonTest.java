@@ -0,0 +1,62 @@
+package com.slicingdice.jslicer.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class CanonicalJsonTest {
+
+    @Test
+    public void sortsKeys() {
+        final JSONObject first = new JSONObject().put("b", 1).put("a", 2).put("c", 3);
+        final JSONObject second = new JSONObject().put("c", 3).put("a", 2).put("b", 1);
+
+        assertEquals("{\"a\":2,\"b\":1,\"c\":3}", CanonicalJson.toString(first));
+        assertEquals(CanonicalJson.toString(first), CanonicalJson.toString(second));
+    }
+
+    @Test
+    public void sortsNestedKeysAndKeepsArrayOrder() {
+        final JSONObject query = new JSONObject()
+                .put("query", new JSONArray()
+                        .put(new JSONObject().put("state", new JSONObject()
+                                .put("equals", "NY").put("between", new JSONArray().put(2)
+                                        .put(1))))
+                        .put("or"))
+                .put("bypass-cache", false);
+
+        assertEquals("{\"bypass-cache\":false,\"query\":[{\"state\":{\"between\":[2,1]," +
+                "\"equals\":\"NY\"}},\"or\"]}", CanonicalJson.toString(query));
+        assertNotEquals(CanonicalJson.toString(new JSONArray().put(1).put(2)),
+                CanonicalJson.toString(new JSONArray().put(2).put(1)));
+    }
+
+    @Test
+    public void writesScalars() {
+        final JSONObject values = new JSONObject()
+                .put("string", "quote \" backslash \\ newline \n \u00e9")
+                .put("long", Long.MIN_VALUE)
+                .put("double", 1.5)
+                .put("null", JSONObject.NULL)
+                .put("true", true);
+
+        assertEquals("{\"double\":1.5,\"long\":" + Long.MIN_VALUE + ",\"null\":null," +
+                        "\"string\":\"quote \\\" backslash \\\\ newline \\n \u00e9\"," +
+                        "\"true\":true}", CanonicalJson.toString(values));
+        assertEquals("\"text\"", CanonicalJson.toString("text"));
+        assertEquals("42", CanonicalJson.toString(42));
+    }
+
+    @Test
+    public void parsesBack() {
+        final JSONObject value = new JSONObject()
+                .put("z", new JSONArray().put(new JSONObject().put("y", 1).put("x", "\t")))
+                .put("a", new JSONObject());
+
+        assertTrue(value.similar(new JSONObject(CanonicalJson.toString(value))));
+    }
+}